@@ -0,0 +1,61 @@
+package org.megafon.task;
+
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Class for parsing the request parameters, shared by the controller and the filters,
+ * so the filters treat the requests in the same way the controller does
+ */
+public class RequestParams {
+    private static final String ENDPOINT_PREFIX = "/";
+
+    /**
+     * Method for getting the endpoint name out of the request path
+     * @return the endpoint name without the leading slash, e.g. 'get_offsets'
+     */
+    public static String getEndpoint(HttpServletRequest request) {
+        return getBatchEndpoint(request.getRequestURI().substring(request.getContextPath().length()));
+    }
+
+    /**
+     * Method for getting the endpoint name of the batch request, which could be given with or without the leading slash
+     * @return the endpoint name without the leading slash, or the empty string if it's absent
+     */
+    public static String getBatchEndpoint(@Nullable String endpoint) {
+        if (endpoint == null) {
+            return "";
+        }
+        return endpoint.startsWith(ENDPOINT_PREFIX) ? endpoint.substring(ENDPOINT_PREFIX.length()) : endpoint;
+    }
+
+    /**
+     * Method for converting String flag to Boolean value
+     * @return true for 'y', 'yes' or 'true', false for 'n', 'no' or 'false', null for any other value
+     */
+    @Nullable
+    public static Boolean parseBooleanFlag(@Nullable String flag) {
+        if ("true".equalsIgnoreCase(flag) || "y".equalsIgnoreCase(flag) || "yes".equalsIgnoreCase(flag)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(flag) || "n".equalsIgnoreCase(flag) || "no".equalsIgnoreCase(flag)) {
+            return false;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Method for converting String flag to more strict String flag
+     * @return 'last' for 'last' or 'newest', 'first' for 'first' or 'oldest', null for any other value
+     */
+    @Nullable
+    public static String parsePositionFlag(@Nullable String flag) {
+        if ("last".equalsIgnoreCase(flag) || "newest".equalsIgnoreCase(flag)) {
+            return "last";
+        } else if ("first".equalsIgnoreCase(flag) || "oldest".equalsIgnoreCase(flag)) {
+            return "first";
+        } else {
+            return null;
+        }
+    }
+}
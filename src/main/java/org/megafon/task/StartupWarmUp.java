@@ -0,0 +1,58 @@
+package org.megafon.task;
+
+import org.megafon.task.storage.TopicsStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Class for the eager load of the base directory at startup, so that the first requests don't wait for it.
+ * The load is done in the background and its progress is reported by the /ready request.
+ */
+@Component
+class StartupWarmUp implements ApplicationListener<ContextRefreshedEvent> {
+    private static final Logger log = LoggerFactory.getLogger(StartupWarmUp.class);
+
+    private final TopicsStorage topicsStorage;
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    @Autowired
+    StartupWarmUp(TopicsStorage topicsStorage) {
+        this.topicsStorage = topicsStorage;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        //the event could be published again by the refresh of the context or its children
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+
+        log.info("Application context started in {} ms since the JVM start", ManagementFactory.getRuntimeMXBean().getUptime());
+
+        final String baseDir = TestTaskController.baseDir;
+        if (baseDir == null) {
+            log.warn("Base directory is not set at startup, warm-up is skipped");
+            return;
+        }
+
+        Thread warmUpThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    topicsStorage.warmUp(baseDir);
+                } catch (Exception e) {
+                    log.error("Warm-up of " + baseDir + " failed", e);
+                }
+            }
+        }, "warm-up");
+        warmUpThread.setDaemon(true);
+        warmUpThread.start();
+    }
+}
@@ -1,27 +1,57 @@
 package org.megafon.task;
 
 import org.megafon.task.entities.*;
+import org.megafon.task.events.NewRunsPublisher;
+import org.megafon.task.events.SseRunsSubscriber;
 import org.megafon.task.readers.RunsFileReader;
+import org.megafon.task.stats.PartitionCounts;
+import org.megafon.task.stats.RunStatisticsCalculator;
+import org.megafon.task.stats.TopRanker;
+import org.megafon.task.storage.TopicsSnapshot;
+import org.megafon.task.storage.TopicsStorage;
+import org.megafon.task.tracing.Phase;
+import org.megafon.task.tracing.SlowRequestsLog;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.text.ParseException;
 import java.util.*;
 
 /**
- * Class for the RESTful response logic for the /get_topics, /get_time_stamps, /get_stats and /get_offsets requests
+ * Class for the RESTful response logic for the /get_topics, /get_time_stamps, /get_stats, /get_offsets, /get_partition_history,
+ * /get_top, /get_new_runs, /batch, /ready, /get_slow_requests and /get_memory requests
  *
  * Created by Alexey on 11/09/2015.
  */
 
 @RestController
 class TestTaskController {
-    private static final String STAT_TYPES_DELIM = ",";
+    private static final String TOPIC_NAMES_DELIM = ",";
+    private static final String SSE_CONTENT_TYPE = "text/event-stream";
+    private static final String TOP_SCOPE_TOPICS = "topics";
+    private static final String TOP_SCOPE_PARTITIONS = "partitions";
     public static String baseDir;
 
+    private final TopicsStorage topicsStorage;
+    private final NewRunsPublisher newRunsPublisher;
+    private final SlowRequestsLog slowRequestsLog;
+
+    @Autowired
+    TestTaskController(TopicsStorage topicsStorage, NewRunsPublisher newRunsPublisher, SlowRequestsLog slowRequestsLog) {
+        this.topicsStorage = topicsStorage;
+        this.newRunsPublisher = newRunsPublisher;
+        this.slowRequestsLog = slowRequestsLog;
+    }
 
     /**
      * Method for processing the request of getting topics list
@@ -36,25 +66,15 @@ class TestTaskController {
             return new ResponseEntity<>("Base directory is not set at servlet startup", HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        LinkedHashSet<Topic> filteredTopics;
         LinkedHashSet<Topic> topics;
 
         try {
-            RunsFileReader reader = new RunsFileReader(baseDir);
-            topics = reader.readTopics();
+            topics = topicsStorage.getTopics(baseDir);
         } catch (Exception e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        Boolean shouldBeEmpty = parseBooleanFlag(empty);
-
-        if (shouldBeEmpty == null) {
-            filteredTopics = topics;
-        } else {
-            filteredTopics = filterEmptyTopics(topics, shouldBeEmpty);
-        }
-
-        return new ResponseEntity<>(getTopicsNames(filteredTopics), HttpStatus.OK);
+        return new ResponseEntity<>(queryTopics(topics, empty), HttpStatus.OK);
     }
 
     /**
@@ -70,20 +90,15 @@ class TestTaskController {
             return new ResponseEntity<>("Base directory is not set at servlet startup", HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        LinkedHashSet<Topic> topics;
-        LinkedHashSet<Topic> filteredTopics;
+        TopicsSnapshot snapshot;
 
         try {
-            RunsFileReader reader = new RunsFileReader(baseDir);
-            topics = reader.readTopics();
+            snapshot = topicsStorage.getSnapshot(baseDir);
         } catch (Exception e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-
-        filteredTopics = filterTopicsByTimestamp(topics, parsePositionFlag(pos));
-
-        return new ResponseEntity<>(getRunInfo(filteredTopics), HttpStatus.OK);
+        return new ResponseEntity<>(queryTimeStamps(snapshot, pos), HttpStatus.OK);
     }
 
     /**
@@ -96,29 +111,29 @@ class TestTaskController {
      *                  'minimum' or 'min' for minimum amount of messages;
      *                  'maximum' or 'min' for minimum amount of messages;
      *                  'average' or 'avg' for average amount of messages;
+     *                  'p1' to 'p99' for the percentiles of the amounts of messages;
      *                  values could be repeated, it doesn't affect the program run
+     * @param approx the flag for the approximate statistics. Could be 'y', 'yes' or 'true' for estimating the total,
+     *               the average and the percentiles by the sample of the partitions of the large runs,
+     *               with the confidence bounds of the values
      * @return  responses with the JSON with list of topics with their names, timestamps and statistics.
      */
     @RequestMapping("/get_stats")
-    public ResponseEntity<Object> getStats(@RequestParam(value = "pos", defaultValue = "no_matter") String pos, @RequestParam(value = "stats") String statTypes) {
+    public ResponseEntity<Object> getStats(@RequestParam(value = "pos", defaultValue = "no_matter") String pos, @RequestParam(value = "stats") String statTypes,
+                                           @RequestParam(value = "approx", defaultValue = "false") String approx) {
         if (baseDir == null) {
             return new ResponseEntity<>("Base directory is not set at servlet startup", HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        LinkedHashSet<Topic> topics;
-        LinkedHashSet<Topic> filteredTopics;
+        TopicsSnapshot snapshot;
 
         try {
-            RunsFileReader reader = new RunsFileReader(baseDir);
-            topics = reader.readTopics();
+            snapshot = topicsStorage.getSnapshot(baseDir);
         } catch (Exception e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-
-        filteredTopics = filterTopicsByTimestamp(topics, parsePositionFlag(pos));
-
-        return new ResponseEntity<>(getRunsStats(filteredTopics, statTypes), HttpStatus.OK);
+        return new ResponseEntity<>(queryStats(snapshot, pos, statTypes, approx), HttpStatus.OK);
     }
 
     /**
@@ -134,144 +149,402 @@ class TestTaskController {
             return new ResponseEntity<>("Base directory is not set at servlet startup", HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
-        LinkedHashSet<Topic> topics;
-        LinkedHashSet<Topic> filteredTopics;
+        TopicsSnapshot snapshot;
 
         try {
-            RunsFileReader reader = new RunsFileReader(baseDir);
-            topics = reader.readTopics();
+            snapshot = topicsStorage.getSnapshot(baseDir);
         } catch (Exception e) {
             return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
         }
 
+        return new ResponseEntity<>(queryOffsets(snapshot, pos), HttpStatus.OK);
+    }
 
-        filteredTopics = filterTopicsByTimestamp(topics, parsePositionFlag(pos));
+    /**
+     * Method for processing the request of getting the message count history of one partition.
+     * The partition is found in the offset tables of the runs by the binary search, the other partitions are not touched.
+     * @param topicName the name of the topic
+     * @param partitionNo the partition number
+     * @param from the timestamp of the oldest run to include, in the same format as the run folder names,
+     *             or from the first run if absent
+     * @param to the timestamp of the newest run to include, in the same format as the run folder names,
+     *           or up to the last run if absent
+     * @return  responses with the JSON with topic name, partition number and the list of runs timestamps
+     *          with message counts of the partition, ordered by the timestamp.
+     */
+    @RequestMapping("/get_partition_history")
+    public ResponseEntity<Object> getPartitionHistory(@RequestParam(value = "topic") String topicName,
+                                                      @RequestParam(value = "partition") String partitionNo,
+                                                      @RequestParam(value = "from", required = false) String from,
+                                                      @RequestParam(value = "to", required = false) String to) {
+        if (baseDir == null) {
+            return new ResponseEntity<>("Base directory is not set at servlet startup", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
 
-        return new ResponseEntity<>(filteredTopics, HttpStatus.OK);
+        TopicsSnapshot snapshot;
+
+        try {
+            snapshot = topicsStorage.getSnapshot(baseDir);
+        } catch (Exception e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        return queryPartitionHistory(snapshot, topicName, partitionNo, from, to);
     }
 
     /**
-     * method for converting Topic list into the list of SimpleRunInfo
+     * Method for processing the request of getting the top K topics or partitions
+     * @param by the value to rank by:
+     *           'total' for the total amount of messages of the topic run, or the amount of messages of the partition;
+     *           'max' for the maximum amount of messages among the partitions of the topic run,
+     *           or the same as 'total' for the partition;
+     *           'growth' for the difference of the 'total' value with the previous run
+     * @param k the amount of the topics or partitions in the response
+     * @param pos the flag for the timestamp filter. Could be 'last' or 'newest' for the last runs,
+     *            or 'first' or 'oldest' for the oldest runs,
+     *            or any other for no filter
+     * @param scope 'topics' for ranking the topics, 'partitions' for ranking the partitions of all topics
+     * @return  responses with the JSON with list of topic names (and partition numbers), timestamps and values,
+     *          the greatest values first.
      */
-    private LinkedHashSet<SimpleRunInfo> getRunInfo(LinkedHashSet<Topic> topics) {
-        LinkedHashSet<SimpleRunInfo> runInfo = new LinkedHashSet<>();
+    @RequestMapping("/get_top")
+    public ResponseEntity<Object> getTop(@RequestParam(value = "by", defaultValue = TopRanker.BY_TOTAL) String by,
+                                         @RequestParam(value = "k", defaultValue = "10") String k,
+                                         @RequestParam(value = "pos", defaultValue = "last") String pos,
+                                         @RequestParam(value = "scope", defaultValue = TOP_SCOPE_TOPICS) String scope) {
+        if (baseDir == null) {
+            return new ResponseEntity<>("Base directory is not set at servlet startup", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
 
-        for (Topic topic : topics) {
-            for (Run run : topic.getRuns()) {
-                runInfo.add(new SimpleRunInfo(run.getTimeStamp(), topic.getTopicName()));
+        TopicsSnapshot snapshot;
+
+        try {
+            snapshot = topicsStorage.getSnapshot(baseDir);
+        } catch (Exception e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        return queryTop(snapshot, by, k, pos, scope);
+    }
+
+    /**
+     * Method for processing the subscription to the runs which appear in the base directory.
+     * The response is the server-sent events stream, which is kept open until the client closes it.
+     * @param topicNames the names of the topics to send the runs of, separated with the commas, or all topics if absent
+     * @param statTypes the statistics to send with every run, in the same format as for the /get_stats request,
+     *                  or no statistics if absent
+     * @return  responses with the stream of 'run' events with the JSON with topic name, timestamp and statistics.
+     *          If the client is too slow to receive them, the oldest events are dropped and the 'dropped' event
+     *          with their amount is sent instead.
+     */
+    @RequestMapping(value = "/get_new_runs", produces = SSE_CONTENT_TYPE)
+    public void getNewRuns(@RequestParam(value = "topics", required = false) String topicNames,
+                           @RequestParam(value = "stats", defaultValue = "") String statTypes,
+                           HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (baseDir == null) {
+            response.sendError(HttpStatus.INTERNAL_SERVER_ERROR.value(), "Base directory is not set at servlet startup");
+            return;
+        }
+
+        Set<String> topicNamesSet = null;
+        if (topicNames != null) {
+            topicNamesSet = new HashSet<>(Arrays.asList(topicNames.split(TOPIC_NAMES_DELIM)));
+        }
+
+        response.setContentType(SSE_CONTENT_TYPE);
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+
+        AsyncContext asyncContext = request.startAsync();
+        //the stream is not limited in time, it's closed by the client
+        asyncContext.setTimeout(0);
+        newRunsPublisher.subscribe(baseDir, new SseRunsSubscriber(asyncContext, topicNamesSet,
+                RunStatisticsCalculator.parseStatTypes(statTypes), newRunsPublisher.getQueueCapacity()));
+    }
+
+    /**
+     * Method for processing the batch of requests. All the requests are evaluated against the same topics,
+     * which are read only once, so their answers are consistent with each other
+     * @param queries the list of requests, each with the endpoint name (e.g. 'get_stats' or '/get_stats')
+     *                and the map of parameters with the same names and values as the endpoint has
+     * @return  responses with the JSON with list of results in the order of the requests,
+     *          each with the endpoint name, status code and the body the endpoint would respond with.
+     */
+    @RequestMapping(value = "/batch", method = RequestMethod.POST)
+    public ResponseEntity<Object> getBatch(@RequestBody List<BatchQuery> queries) {
+        if (baseDir == null) {
+            return new ResponseEntity<>("Base directory is not set at servlet startup", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        TopicsSnapshot snapshot;
+
+        try {
+            snapshot = topicsStorage.getSnapshot(baseDir);
+        } catch (Exception e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        List<BatchResult> results = new ArrayList<>(queries.size());
+        for (BatchQuery query : queries) {
+            results.add(queryBatchItem(snapshot, query));
+        }
+
+        return new ResponseEntity<>(results, HttpStatus.OK);
+    }
+
+    /**
+     * Method for processing the readiness request. The service is ready when the initial load of the base directory
+     * has completed, until then the load progress is reported with the 503 status
+     * @return  responses with the JSON with readiness flag and load progress.
+     */
+    @RequestMapping("/ready")
+    public ResponseEntity<Object> getReadiness() {
+        Readiness readiness = new Readiness(topicsStorage.isReady(), topicsStorage.getTopicsLoaded(),
+                topicsStorage.getTopicsTotal(), topicsStorage.getRunsLoaded(), topicsStorage.getRunsTotal(),
+                topicsStorage.getLoadError());
+
+        return new ResponseEntity<>(readiness, readiness.isReady() ? HttpStatus.OK : HttpStatus.SERVICE_UNAVAILABLE);
+    }
+
+    /**
+     * Method for processing the request of getting the recent slow requests
+     * @return  responses with the JSON with list of the slow requests with their paths, status codes, timestamps,
+     *          durations and durations of their phases, the slowest first.
+     */
+    @RequestMapping("/get_slow_requests")
+    public ResponseEntity<Object> getSlowRequests() {
+        return new ResponseEntity<>(slowRequestsLog.getRequests(), HttpStatus.OK);
+    }
+
+    /**
+     * Method for processing the request of getting the memory footprint of the loaded topics.
+     * The sizes are estimated by the object layout of the 64-bit JVM with the compressed references
+     * @return  responses with the JSON with the retained heap and direct memory of every topic and the totals.
+     */
+    @RequestMapping("/get_memory")
+    public ResponseEntity<Object> getMemory() {
+        if (baseDir == null) {
+            return new ResponseEntity<>("Base directory is not set at servlet startup", HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        TopicsSnapshot snapshot;
+
+        try {
+            snapshot = topicsStorage.getSnapshot(baseDir);
+        } catch (Exception e) {
+            return new ResponseEntity<>(e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+
+        return new ResponseEntity<>(snapshot.getFootprint(), HttpStatus.OK);
+    }
+
+    /**
+     * method for getting the names of the topics filtered by their emptiness
+     */
+    private LinkedHashSet<String> queryTopics(LinkedHashSet<Topic> topics, String empty) {
+        LinkedHashSet<Topic> filteredTopics;
+        Boolean shouldBeEmpty = RequestParams.parseBooleanFlag(empty);
+
+        if (shouldBeEmpty == null) {
+            filteredTopics = topics;
+        } else {
+            filteredTopics = filterEmptyTopics(topics, shouldBeEmpty);
+        }
+
+        return getTopicsNames(filteredTopics);
+    }
+
+    /**
+     * method for getting the runs information of the topics filtered by their timestamp
+     */
+    private LinkedHashSet<SimpleRunInfo> queryTimeStamps(TopicsSnapshot snapshot, String pos) {
+        return getRunInfo(filterTopicsByTimestamp(snapshot, RequestParams.parsePositionFlag(pos)));
+    }
+
+    /**
+     * method for getting the runs statistics of the topics filtered by their timestamp
+     */
+    private LinkedHashSet<RunStatistics> queryStats(TopicsSnapshot snapshot, String pos, String statTypes, String approx) {
+        return getRunsStats(filterTopicsByTimestamp(snapshot, RequestParams.parsePositionFlag(pos)), statTypes,
+                Boolean.TRUE.equals(RequestParams.parseBooleanFlag(approx)));
+    }
+
+    /**
+     * method for getting the topics filtered by their timestamp with the offsets of their runs
+     */
+    private LinkedHashSet<Topic> queryOffsets(TopicsSnapshot snapshot, String pos) {
+        return filterTopicsByTimestamp(snapshot, RequestParams.parsePositionFlag(pos));
+    }
+
+    /**
+     * method for getting the message count history of the partition within the time range out of the offset tables
+     */
+    private ResponseEntity<Object> queryPartitionHistory(TopicsSnapshot snapshot, String topicName, String partitionNo,
+                                                         String from, String to) {
+        int partition;
+        long fromTime = Long.MIN_VALUE;
+        long toTime = Long.MAX_VALUE;
+        try {
+            partition = Integer.parseInt(partitionNo);
+        } catch (NumberFormatException e) {
+            return new ResponseEntity<>("Partition number '" + partitionNo + "' has unappropriated number format", HttpStatus.BAD_REQUEST);
+        }
+        try {
+            if (from != null) {
+                fromTime = RunsFileReader.parseTimeStamp(from).getTime();
+            }
+            if (to != null) {
+                toTime = RunsFileReader.parseTimeStamp(to).getTime();
             }
+        } catch (ParseException e) {
+            return new ResponseEntity<>("Timestamp has unappropriated format. Format should be next: " + RunsFileReader.dateFormat.toPattern(), HttpStatus.BAD_REQUEST);
         }
 
-        return runInfo;
+        PartitionHistory history = null;
+        for (Topic topic : snapshot.getTopics()) {
+            if (topic.getTopicName().equals(topicName)) {
+                history = PartitionCounts.history(topic, partition, fromTime, toTime);
+                break;
+            }
+        }
+        if (history == null) {
+            return new ResponseEntity<>("Partition " + partition + " of the topic '" + topicName + "' was not found", HttpStatus.NOT_FOUND);
+        }
+        return new ResponseEntity<>(history, HttpStatus.OK);
     }
 
     /**
-     * method for converting Topic list into the list of RunStatistics
+     * method for selecting the top K topics or partitions with the bounded heap
      */
-    private LinkedHashSet<RunStatistics> getRunsStats(LinkedHashSet<Topic> topics, String statTypes) {
-        List<String> statTypesArr = Arrays.asList(statTypes.split(STAT_TYPES_DELIM));
+    private ResponseEntity<Object> queryTop(TopicsSnapshot snapshot, String by, String k, String pos, String scope) {
+        int kValue;
+        try {
+            kValue = Integer.parseInt(k);
+        } catch (NumberFormatException e) {
+            return new ResponseEntity<>("Amount of the entries '" + k + "' has unappropriated number format", HttpStatus.BAD_REQUEST);
+        }
+        if (!TopRanker.isKnownValue(by) || kValue <= 0) {
+            return new ResponseEntity<>("Ranking value should be '" + TopRanker.BY_TOTAL + "', '" + TopRanker.BY_MAX + "' or '"
+                    + TopRanker.BY_GROWTH + "' and amount of the entries should be positive", HttpStatus.BAD_REQUEST);
+        }
 
-        LinkedHashSet<RunStatistics> runStats = new LinkedHashSet<>();
+        TopRanker ranker = new TopRanker(by, kValue);
+        if (TOP_SCOPE_TOPICS.equals(scope)) {
+            ranker.rankTopics(snapshot.getTopics(), RequestParams.parsePositionFlag(pos));
+        } else if (TOP_SCOPE_PARTITIONS.equals(scope)) {
+            ranker.rankPartitions(snapshot.getTopics(), RequestParams.parsePositionFlag(pos));
+        } else {
+            return new ResponseEntity<>("Ranking scope should be '" + TOP_SCOPE_TOPICS + "' or '" + TOP_SCOPE_PARTITIONS + "'", HttpStatus.BAD_REQUEST);
+        }
 
-        for (Topic topic : topics) {
-            for (Run run : topic.getRuns()) {
-                RunStatistics runStatistics = new RunStatistics(run.getTimeStamp(), topic.getTopicName());
-
-                //here the stats are calculated
-                if (statTypesArr.contains("total") || statTypesArr.contains("sum") || statTypesArr.contains("ttl")) {
-                    Long total = 0L;
-                    for (Offset offset : run.getOffsets()) {
-                        total = total + offset.getMsgCount();
-                    }
-                    runStatistics.setTotalMsgCount(total);
-                }
-                if (statTypesArr.contains("min") || statTypesArr.contains("minimum")) {
-                    if (run.getOffsets().size() > 0) {
-                        Long min = Long.MAX_VALUE;
-                        for (Offset offset : run.getOffsets()) {
-                            if (offset.getMsgCount() < min) {
-                                min = offset.getMsgCount();
-                            }
-                        }
-                        runStatistics.setMinMsgCount(min);
-                    }
-                }
-                if (statTypesArr.contains("max") || statTypesArr.contains("maximum")) {
-                    if (run.getOffsets().size() > 0) {
-                        Long max = Long.MIN_VALUE;
-                        for (Offset offset : run.getOffsets()) {
-                            if (offset.getMsgCount() > max) {
-                                max = offset.getMsgCount();
-                            }
-                        }
-                        runStatistics.setMaxMsgCount(max);
-                    }
+        return new ResponseEntity<>(ranker.getTop(), HttpStatus.OK);
+    }
+
+    /**
+     * method for evaluating one request of the batch, with the same parameter defaults as the endpoint has
+     */
+    private BatchResult queryBatchItem(TopicsSnapshot snapshot, BatchQuery query) {
+        if (query == null || query.getEndpoint() == null) {
+            return new BatchResult(null, HttpStatus.BAD_REQUEST, "Required String field 'endpoint' is not present");
+        }
+
+        String endpoint = RequestParams.getBatchEndpoint(query.getEndpoint());
+        Map<String, String> params = query.getParams() == null ? Collections.<String, String>emptyMap() : query.getParams();
+
+        switch (endpoint) {
+            case "get_topics":
+                return new BatchResult(query.getEndpoint(), HttpStatus.OK,
+                        queryTopics(snapshot.getTopics(), getBatchParam(params, "empty", "no_matter")));
+            case "get_time_stamps":
+                return new BatchResult(query.getEndpoint(), HttpStatus.OK,
+                        queryTimeStamps(snapshot, getBatchParam(params, "pos", "no_matter")));
+            case "get_stats":
+                if (params.get("stats") == null) {
+                    return new BatchResult(query.getEndpoint(), HttpStatus.BAD_REQUEST,
+                            "Required String parameter 'stats' is not present");
                 }
-                if (statTypesArr.contains("avg") || statTypesArr.contains("average")) {
-                    if (run.getOffsets().size() > 0) {
-                        Double avg = 0d;
-                        for (Offset offset : run.getOffsets()) {
-                            avg = avg + offset.getMsgCount();
-                        }
-                        avg = avg / run.getOffsets().size();
-                        runStatistics.setAvgMsgCount(avg);
-                    }
+                return new BatchResult(query.getEndpoint(), HttpStatus.OK,
+                        queryStats(snapshot, getBatchParam(params, "pos", "no_matter"), params.get("stats"),
+                                getBatchParam(params, "approx", "false")));
+            case "get_offsets":
+                return new BatchResult(query.getEndpoint(), HttpStatus.OK,
+                        queryOffsets(snapshot, getBatchParam(params, "pos", "no_matter")));
+            case "get_partition_history":
+                if (params.get("topic") == null || params.get("partition") == null) {
+                    return new BatchResult(query.getEndpoint(), HttpStatus.BAD_REQUEST,
+                            "Required String parameters 'topic' and 'partition' are not present");
                 }
-
-                runStats.add(runStatistics);
-            }
+                ResponseEntity<Object> history = queryPartitionHistory(snapshot, params.get("topic"),
+                        params.get("partition"), params.get("from"), params.get("to"));
+                return new BatchResult(query.getEndpoint(), history.getStatusCode(), history.getBody());
+            case "get_top":
+                ResponseEntity<Object> top = queryTop(snapshot, getBatchParam(params, "by", TopRanker.BY_TOTAL),
+                        getBatchParam(params, "k", "10"), getBatchParam(params, "pos", "last"),
+                        getBatchParam(params, "scope", TOP_SCOPE_TOPICS));
+                return new BatchResult(query.getEndpoint(), top.getStatusCode(), top.getBody());
+            case "get_memory":
+                return new BatchResult(query.getEndpoint(), HttpStatus.OK, snapshot.getFootprint());
+            default:
+                return new BatchResult(query.getEndpoint(), HttpStatus.NOT_FOUND,
+                        "Unknown endpoint '" + query.getEndpoint() + "'");
         }
+    }
 
-        return runStats;
+    /**
+     * method for getting the parameter of the batch request or its default value if it's absent
+     */
+    private String getBatchParam(Map<String, String> params, String name, String defaultValue) {
+        String value = params.get(name);
+        return value == null ? defaultValue : value;
     }
 
     /**
-     * method for filtering topics by their timestamp
+     * method for converting Topic list into the list of SimpleRunInfo
      */
-    private LinkedHashSet<Topic> filterTopicsByTimestamp(LinkedHashSet<Topic> topics, String filter) {
-        LinkedHashSet<Topic> filteredTopics = new LinkedHashSet<>(topics.size());
+    private LinkedHashSet<SimpleRunInfo> getRunInfo(LinkedHashSet<Topic> topics) {
+        LinkedHashSet<SimpleRunInfo> runInfo = new LinkedHashSet<>();
 
         for (Topic topic : topics) {
-            LinkedHashSet<Run> filteredRuns = new LinkedHashSet<>();
-            if ("last".equals(filter)) {
-                filteredRuns.add(Collections.max(topic.getRuns()));
-            } else if ("first".equals(filter)) {
-                filteredRuns.add(Collections.min(topic.getRuns()));
-            } else if (filter == null) {
-                filteredRuns = topic.getRuns();
+            for (Run run : topic.getRuns()) {
+                runInfo.add(new SimpleRunInfo(run, topic.getTopicName()));
             }
-            filteredTopics.add(new Topic(topic.getTopicName(), filteredRuns));
         }
 
-        return filteredTopics;
+        return runInfo;
     }
 
     /**
-     * method for converting String flag to Boolean value
+     * method for converting Topic list into the list of RunStatistics
      */
-    @Nullable
-    private Boolean parseBooleanFlag(String flag) {
-        if ("true".equalsIgnoreCase(flag) || "y".equalsIgnoreCase(flag) || "yes".equalsIgnoreCase(flag)) {
-            return true;
-        } else if ("false".equalsIgnoreCase(flag) || "n".equalsIgnoreCase(flag) || "no".equalsIgnoreCase(flag)) {
-            return false;
-        } else {
-            return null;
+    private LinkedHashSet<RunStatistics> getRunsStats(LinkedHashSet<Topic> topics, String statTypes, boolean approximate) {
+        Phase phase = Phase.start(Phase.STATS);
+        List<String> statTypesArr = RunStatisticsCalculator.parseStatTypes(statTypes);
+
+        LinkedHashSet<RunStatistics> runStats = new LinkedHashSet<>();
+        long partitionsCount = 0;
+
+        for (Topic topic : topics) {
+            for (Run run : topic.getRuns()) {
+                runStats.add(RunStatisticsCalculator.calculate(topic.getTopicName(), run, statTypesArr, approximate));
+                partitionsCount += run.getOffsetTable().size();
+            }
         }
+
+        phase.end(topics.size(), runStats.size(), partitionsCount);
+        return runStats;
     }
 
     /**
-     * method for converting String flag to more strict String flag
+     * method for filtering topics by their timestamp. The filtered topics are shared by all the requests to the snapshot
      */
-    @Nullable
-    private String parsePositionFlag(String flag) {
-        if ("last".equalsIgnoreCase(flag) || "newest".equalsIgnoreCase(flag)) {
-            return "last";
-        } else if ("first".equalsIgnoreCase(flag) || "oldest".equalsIgnoreCase(flag)) {
-            return "first";
-        } else {
-            return null;
-        }
+    private LinkedHashSet<Topic> filterTopicsByTimestamp(TopicsSnapshot snapshot, String filter) {
+        Phase phase = Phase.start(Phase.FILTER);
+        LinkedHashSet<Topic> filteredTopics = snapshot.getFilteredTopics(filter);
+        int runsCount = filter == null ? snapshot.getRunsCount() : filteredTopics.size();
+
+        //the partitions are not touched by the filter, so they are not counted
+        phase.end(filteredTopics.size(), runsCount, 0);
+        return filteredTopics;
     }
 
     /**
@@ -296,7 +569,7 @@ class TestTaskController {
         for (Topic topic : topics) {
             boolean isTopicPass = shouldBeEmpty;
             for (Run run : topic.getRuns()) {
-                if (run.getOffsets().size() > 0) {
+                if (run.getOffsetTable().size() > 0) {
                     isTopicPass = !shouldBeEmpty;
                     //if we've found the needed run - we don't need to look the others
                     break;
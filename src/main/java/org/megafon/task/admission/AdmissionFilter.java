@@ -0,0 +1,237 @@
+package org.megafon.task.admission;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.megafon.task.RequestParams;
+import org.megafon.task.entities.BatchQuery;
+import org.megafon.task.stats.RunStatisticsCalculator;
+import org.megafon.task.storage.TopicsSnapshot;
+import org.megafon.task.storage.TopicsStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the admission control of the requests. Every endpoint has its own limiter, so the heavy requests
+ * (like /get_offsets of all runs) can't take the threads the light ones (like /get_topics) need.
+ * The cost of the /get_offsets, /get_stats and /get_top requests is estimated by the amount of the offsets
+ * they touch in the last loaded snapshot, so one heavy request takes several permits of its endpoint.
+ * The approximate /get_stats requests touch only the samples of the runs, unless they need the minimum
+ * or the maximum. The /get_memory request walks all the runs,
+ * so its cost is estimated by their amount. The /batch request costs as much as its sub-requests together,
+ * so its body is read before the admission, if it isn't larger than admission.batch.max_body_bytes, otherwise
+ * the request is rejected with the 413 status.
+ * The rejected requests get the 429 status if the queue of the endpoint is full, or the 503 status if they
+ * have waited too long, both with the Retry-After header.
+ *
+ * The limits are set with the properties, the endpoint ones override the common ones:
+ * admission.permits, admission.queue, admission.max_wait_ms and admission.&lt;endpoint&gt;.permits,
+ * admission.&lt;endpoint&gt;.queue, admission.&lt;endpoint&gt;.max_wait_ms.
+ */
+@Component
+public class AdmissionFilter extends OncePerRequestFilter {
+    private static final Logger log = LoggerFactory.getLogger(AdmissionFilter.class);
+    private static final String PROPERTY_PREFIX = "admission.";
+    private static final String[] LIMITED_ENDPOINTS = {"get_topics", "get_time_stamps", "get_stats", "get_offsets",
+            "get_partition_history", "get_top", "get_memory", "batch"};
+    private static final String BATCH_ENDPOINT = "batch";
+    private static final String RETRY_AFTER_HEADER = "Retry-After";
+    private static final ObjectMapper BATCH_READER = new ObjectMapper();
+
+    private final TopicsStorage topicsStorage;
+    private final boolean enabled;
+    private final long offsetsPerPermit;
+    private final long runsPerPermit;
+    private final int maxBatchBodyBytes;
+    private final long retryAfterSeconds;
+    private final Map<String, AdmissionLimiter> limiters = new HashMap<>();
+
+    /**
+     * @param topicsStorage the storage, which last snapshot is used for the cost estimation
+     * @param environment the environment with the limits properties
+     */
+    @Autowired
+    public AdmissionFilter(TopicsStorage topicsStorage, Environment environment) {
+        this.topicsStorage = topicsStorage;
+        this.enabled = environment.getProperty(PROPERTY_PREFIX + "enabled", Boolean.class, true);
+        this.offsetsPerPermit = environment.getProperty(PROPERTY_PREFIX + "offsets_per_permit", Long.class, 100000L);
+        this.runsPerPermit = environment.getProperty(PROPERTY_PREFIX + "runs_per_permit", Long.class, 1000L);
+        this.maxBatchBodyBytes = environment.getProperty(PROPERTY_PREFIX + BATCH_ENDPOINT + ".max_body_bytes",
+                Integer.class, 65536);
+        this.retryAfterSeconds = environment.getProperty(PROPERTY_PREFIX + "retry_after_s", Long.class, 1L);
+
+        int permits = environment.getProperty(PROPERTY_PREFIX + "permits", Integer.class, 16);
+        int queue = environment.getProperty(PROPERTY_PREFIX + "queue", Integer.class, 32);
+        long maxWaitMs = environment.getProperty(PROPERTY_PREFIX + "max_wait_ms", Long.class, 1000L);
+        for (String endpoint : LIMITED_ENDPOINTS) {
+            String prefix = PROPERTY_PREFIX + endpoint + ".";
+            limiters.put(endpoint, new AdmissionLimiter(
+                    environment.getProperty(prefix + "permits", Integer.class, permits),
+                    environment.getProperty(prefix + "queue", Integer.class, queue),
+                    environment.getProperty(prefix + "max_wait_ms", Long.class, maxWaitMs)));
+        }
+    }
+
+    /**
+     * @param endpoint the endpoint name without the leading slash, e.g. 'get_offsets'
+     * @return the limiter of the endpoint, or null if the endpoint is not limited
+     */
+    public AdmissionLimiter getLimiter(String endpoint) {
+        return limiters.get(endpoint);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String endpoint = RequestParams.getEndpoint(request);
+        AdmissionLimiter limiter = limiters.get(endpoint);
+        if (!enabled || limiter == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        if (BATCH_ENDPOINT.equals(endpoint)) {
+            CachedBodyRequest cachedBodyRequest = new CachedBodyRequest(request, maxBatchBodyBytes);
+            if (cachedBodyRequest.isTooLarge()) {
+                log.debug("Request rejected with the status {}: the body is larger than {} bytes",
+                        HttpStatus.PAYLOAD_TOO_LARGE.value(), maxBatchBodyBytes);
+                response.setStatus(HttpStatus.PAYLOAD_TOO_LARGE.value());
+                response.setContentType("text/plain;charset=UTF-8");
+                response.getWriter().write("Body of /" + endpoint + " request is larger than " + maxBatchBodyBytes + " bytes");
+                return;
+            }
+            request = cachedBodyRequest;
+        }
+        int cost = estimateCost(endpoint, request);
+        AdmissionLimiter.Decision decision;
+        try {
+            decision = limiter.acquire(cost);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            decision = AdmissionLimiter.Decision.TIMED_OUT;
+        }
+
+        if (decision == AdmissionLimiter.Decision.QUEUE_FULL) {
+            reject(response, HttpStatus.TOO_MANY_REQUESTS, "Too many concurrent /" + endpoint + " requests");
+            return;
+        } else if (decision == AdmissionLimiter.Decision.TIMED_OUT) {
+            reject(response, HttpStatus.SERVICE_UNAVAILABLE, "Service is overloaded with /" + endpoint + " requests");
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            limiter.release(cost);
+        }
+    }
+
+    /**
+     * method for estimating the cost of the request in permits by the amount of the offsets it touches
+     */
+    private int estimateCost(String endpoint, HttpServletRequest request) {
+        TopicsSnapshot snapshot = topicsStorage.getLoadedSnapshot();
+        if (snapshot == null || snapshot.getRunsCount() == 0) {
+            return 1;
+        }
+
+        long offsets = 0L;
+        long runs = 0L;
+        if (BATCH_ENDPOINT.equals(endpoint)) {
+            for (BatchQuery query : readBatch((CachedBodyRequest) request)) {
+                if (query == null) {
+                    continue;
+                }
+                String queryEndpoint = RequestParams.getBatchEndpoint(query.getEndpoint());
+                Map<String, String> params = query.getParams() == null ? Collections.<String, String>emptyMap() : query.getParams();
+                offsets += estimateOffsets(snapshot, queryEndpoint, params.get("pos"), params.get("stats"), params.get("approx"));
+                runs += estimateRuns(snapshot, queryEndpoint);
+            }
+        } else {
+            offsets = estimateOffsets(snapshot, endpoint, request.getParameter("pos"), request.getParameter("stats"),
+                    request.getParameter("approx"));
+            runs = estimateRuns(snapshot, endpoint);
+        }
+
+        long cost = 1L;
+        if (offsetsPerPermit > 0) {
+            cost += offsets / offsetsPerPermit;
+        }
+        if (runsPerPermit > 0) {
+            cost += runs / runsPerPermit;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, cost);
+    }
+
+    /**
+     * method for estimating the amount of the runs the request walks regardless of their offsets
+     */
+    private long estimateRuns(TopicsSnapshot snapshot, String endpoint) {
+        return "get_memory".equals(endpoint) ? snapshot.getRunsCount() : 0L;
+    }
+
+    /**
+     * method for estimating the amount of the offsets the request touches, with the same parameter defaults
+     * as the endpoint has. The runs filtered by the position are estimated as one average run per topic
+     */
+    private long estimateOffsets(TopicsSnapshot snapshot, String endpoint, String pos, String stats, String approx) {
+        switch (endpoint) {
+            case "get_stats":
+            case "get_offsets":
+                break;
+            case "get_top":
+                pos = pos == null ? "last" : pos;
+                break;
+            default:
+                return 0L;
+        }
+
+        //the minimum and the maximum are exact, so they scan all the partitions of the sampled runs too
+        boolean sampled = "get_stats".equals(endpoint) && Boolean.TRUE.equals(RequestParams.parseBooleanFlag(approx))
+                && stats != null && RunStatisticsCalculator.isSampled(RunStatisticsCalculator.parseStatTypes(stats));
+        long offsets = sampled ? snapshot.getSampledOffsetsCount() : snapshot.getOffsetsCount();
+        if (RequestParams.parsePositionFlag(pos) != null) {
+            offsets = offsets * snapshot.getTopics().size() / snapshot.getRunsCount();
+        }
+        return offsets;
+    }
+
+    /**
+     * method for reading the sub-requests of the batch. The malformed batch is rejected by the controller,
+     * so here it costs nothing
+     */
+    private List<BatchQuery> readBatch(CachedBodyRequest request) {
+        try {
+            List<BatchQuery> queries = BATCH_READER.readValue(request.getBody(), new TypeReference<List<BatchQuery>>() {
+            });
+            return queries == null ? Collections.<BatchQuery>emptyList() : queries;
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * method for the fast rejection of the request, which tells the client when to retry
+     */
+    private void reject(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        log.debug("Request rejected with the status {}: {}", status.value(), message);
+        response.setStatus(status.value());
+        response.setHeader(RETRY_AFTER_HEADER, String.valueOf(retryAfterSeconds));
+        response.setContentType("text/plain;charset=UTF-8");
+        response.getWriter().write(message);
+    }
+}
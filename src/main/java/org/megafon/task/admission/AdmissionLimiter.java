@@ -0,0 +1,97 @@
+package org.megafon.task.admission;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class for limiting the concurrency of one endpoint. The requests take as many permits as their cost is,
+ * the ones which couldn't take them at once wait in the bounded queue, in the order of their arrival.
+ * The requests are rejected at once if the queue is full, or after the maximum wait if the permits
+ * haven't been released by then.
+ */
+public class AdmissionLimiter {
+    /**
+     * the decision about the request
+     */
+    public enum Decision {
+        ADMITTED,
+        QUEUE_FULL,
+        TIMED_OUT
+    }
+
+    private final int permits;
+    private final int queueCapacity;
+    private final long maxWaitMs;
+    private final Semaphore semaphore;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param permits the amount of the permits, which is the amount of the concurrent requests of the cost 1
+     * @param queueCapacity the maximum amount of the requests waiting for the permits
+     * @param maxWaitMs the maximum time the request waits for the permits in the queue
+     */
+    public AdmissionLimiter(int permits, int queueCapacity, long maxWaitMs) {
+        if (permits <= 0) {
+            throw new IllegalArgumentException("Amount of the permits should be positive");
+        }
+        this.permits = permits;
+        this.queueCapacity = queueCapacity;
+        this.maxWaitMs = maxWaitMs;
+        this.semaphore = new Semaphore(permits, true);
+    }
+
+    /**
+     * Method for taking the permits for the request
+     * @param cost the cost of the request, which is limited to the amount of the permits, so any request could be admitted
+     * @return the decision about the request. Only the admitted requests should release the permits
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public Decision acquire(int cost) throws InterruptedException {
+        int boundedCost = getBoundedCost(cost);
+        //the fair semaphore doesn't let the request overtake the waiting ones
+        if (semaphore.tryAcquire(boundedCost, 0, TimeUnit.MILLISECONDS)) {
+            return Decision.ADMITTED;
+        }
+
+        if (waiting.incrementAndGet() > queueCapacity) {
+            waiting.decrementAndGet();
+            return Decision.QUEUE_FULL;
+        }
+        try {
+            return semaphore.tryAcquire(boundedCost, maxWaitMs, TimeUnit.MILLISECONDS) ? Decision.ADMITTED : Decision.TIMED_OUT;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Method for releasing the permits taken by the admitted request
+     * @param cost the same cost the permits were acquired with
+     */
+    public void release(int cost) {
+        semaphore.release(getBoundedCost(cost));
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * @return the amount of the permits, which are not taken by the requests
+     */
+    public int getAvailablePermits() {
+        return semaphore.availablePermits();
+    }
+
+    /**
+     * @return the amount of the requests waiting for the permits
+     */
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    private int getBoundedCost(int cost) {
+        return Math.max(1, Math.min(cost, permits));
+    }
+}
@@ -0,0 +1,96 @@
+package org.megafon.task.admission;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class for the request, which body is read before the request is admitted. The body is kept in the memory,
+ * so it could be read again by the controller. The body larger than the limit is not read further,
+ * whatever Content-Length it declares, and the request is marked as too large.
+ */
+class CachedBodyRequest extends HttpServletRequestWrapper {
+    private static final int BUFFER_SIZE = 4096;
+
+    private final byte[] body;
+    private final boolean tooLarge;
+
+    /**
+     * @param request the request, which body is read at once
+     * @param maxBytes the maximum size of the body
+     * @throws IOException if the body couldn't be read
+     */
+    CachedBodyRequest(HttpServletRequest request, int maxBytes) throws IOException {
+        super(request);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean exceeded = request.getContentLengthLong() > maxBytes;
+        if (!exceeded) {
+            InputStream in = request.getInputStream();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while (!exceeded && (read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                exceeded = out.size() > maxBytes;
+            }
+        }
+        this.body = exceeded ? new byte[0] : out.toByteArray();
+        this.tooLarge = exceeded;
+    }
+
+    byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return true if the body is larger than the limit, so it hasn't been kept
+     */
+    boolean isTooLarge() {
+        return tooLarge;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(body);
+        return new ServletInputStream() {
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                throw new IllegalStateException("The body is already read, so it could be read only synchronously");
+            }
+
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len);
+            }
+        };
+    }
+
+    @Override
+    public BufferedReader getReader() throws IOException {
+        String encoding = getCharacterEncoding();
+        return new BufferedReader(new InputStreamReader(getInputStream(),
+                encoding == null ? StandardCharsets.ISO_8859_1.name() : encoding));
+    }
+}
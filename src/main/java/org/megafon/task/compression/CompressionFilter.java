@@ -0,0 +1,526 @@
+package org.megafon.task.compression;
+
+import org.megafon.task.RequestParams;
+import org.megafon.task.storage.TopicsSnapshot;
+import org.megafon.task.storage.TopicsStorage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Class for the compression of the responses with the coding negotiated by the Accept-Encoding header.
+ * The body is compressed while it's written, through the bounded buffer of the compressor, so the large responses
+ * are never kept in the memory as a whole. The bodies smaller than compression.min_bytes are sent as they are.
+ *
+ * The responses of the GET requests, which depend on the topics only, are stored encoded for the version of the topics
+ * they are made of, if their encoded bodies aren't larger than compression.max_cached_bytes, or than
+ * compression.max_cached_large_bytes for the large lists of the topics and the offsets. The repeated request of the same version
+ * gets the stored bytes without the serialization and the compression, and without the admission control.
+ * The lookup doesn't refresh the topics, so it never waits for the storage. The stored responses are sent only while
+ * the last refresh made by any request is not older than compression.max_stale_ms, otherwise the request goes
+ * to the controller, which refreshes the topics.
+ *
+ * The endpoints, which write their bodies asynchronously, are never encoded. The non-blocking output of the other ones
+ * is sent as it is, if it's started before the body is written.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class CompressionFilter extends OncePerRequestFilter {
+    private static final String PROPERTY_PREFIX = "compression.";
+    private static final Set<String> CACHED_ENDPOINTS = new HashSet<>(Arrays.asList("get_topics", "get_time_stamps",
+            "get_stats", "get_offsets", "get_partition_history", "get_top"));
+    //the full lists are the most expensive to serialize, so they are stored up to the larger limit
+    private static final Set<String> LARGE_ENDPOINTS = new HashSet<>(Arrays.asList("get_topics", "get_offsets"));
+    //the events are written asynchronously and are flushed one by one, so they are never buffered
+    private static final Set<String> STREAMED_ENDPOINTS = new HashSet<>(Arrays.asList("get_new_runs"));
+    private static final String ACCEPT_ENCODING_HEADER = "Accept-Encoding";
+    private static final String CONTENT_ENCODING_HEADER = "Content-Encoding";
+    private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+    private static final String VARY_HEADER = "Vary";
+
+    private final TopicsStorage topicsStorage;
+    private final boolean enabled;
+    private final int minBytes;
+    private final int bufferBytes;
+    private final int level;
+    private final int maxCachedBytes;
+    private final int maxCachedLargeBytes;
+    private final long maxStaleMs;
+    private final EncodedResponseCache cache;
+
+    /**
+     * @param topicsStorage the storage, which loaded snapshot version the stored responses are checked against
+     * @param environment the environment with the compression properties
+     */
+    @Autowired
+    public CompressionFilter(TopicsStorage topicsStorage, Environment environment) {
+        this.topicsStorage = topicsStorage;
+        this.enabled = environment.getProperty(PROPERTY_PREFIX + "enabled", Boolean.class, true);
+        this.minBytes = environment.getProperty(PROPERTY_PREFIX + "min_bytes", Integer.class, 1024);
+        this.bufferBytes = environment.getProperty(PROPERTY_PREFIX + "buffer_bytes", Integer.class, 8192);
+        this.level = environment.getProperty(PROPERTY_PREFIX + "level", Integer.class, 6);
+        this.maxCachedBytes = environment.getProperty(PROPERTY_PREFIX + "max_cached_bytes", Integer.class, 4194304);
+        this.maxCachedLargeBytes = environment.getProperty(PROPERTY_PREFIX + "max_cached_large_bytes", Integer.class, 33554432);
+        this.maxStaleMs = environment.getProperty(PROPERTY_PREFIX + "max_stale_ms", Long.class, 1000L);
+        this.cache = new EncodedResponseCache(environment.getProperty(PROPERTY_PREFIX + "cache_bytes", Long.class, 67108864L));
+    }
+
+    /**
+     * @return the cache of the encoded responses
+     */
+    public EncodedResponseCache getCache() {
+        return cache;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String endpoint = RequestParams.getEndpoint(request);
+        if (!enabled || STREAMED_ENDPOINTS.contains(endpoint)) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        ContentCoding coding = ContentCoding.negotiate(request.getHeader(ACCEPT_ENCODING_HEADER));
+        response.addHeader(VARY_HEADER, ACCEPT_ENCODING_HEADER);
+
+        String key = null;
+        TopicsSnapshot snapshot = null;
+        if ("GET".equals(request.getMethod()) && CACHED_ENDPOINTS.contains(endpoint)) {
+            snapshot = topicsStorage.getLoadedSnapshot();
+            if (snapshot != null) {
+                key = getCacheKey(request, coding);
+                if (System.currentTimeMillis() - topicsStorage.getRefreshedAt() <= maxStaleMs) {
+                    EncodedResponse stored = cache.get(snapshot.getVersion(), key);
+                    if (stored != null) {
+                        send(stored, response);
+                        return;
+                    }
+                }
+            }
+        }
+
+        int captureLimit = key == null ? 0 : LARGE_ENDPOINTS.contains(endpoint) ? maxCachedLargeBytes : maxCachedBytes;
+        EncodingResponse encodingResponse = new EncodingResponse(response, coding, captureLimit);
+        boolean processed = false;
+        try {
+            filterChain.doFilter(request, encodingResponse);
+            processed = true;
+        } finally {
+            //the compressor holds the native memory, so it's released even if the body is never completed
+            if (!processed) {
+                encodingResponse.abort();
+            }
+        }
+        if (request.isAsyncStarted()) {
+            //the rest of the body is written after the filter, so it's sent as it is
+            encodingResponse.passThrough();
+            return;
+        }
+        encodingResponse.finish();
+
+        //the response is stored only if the controller has served the same version, i.e. its refresh hasn't changed
+        //the topics of the lookup and no other refresh has changed them while the response was made
+        if (key != null && encodingResponse.getStatus() == HttpStatus.OK.value()) {
+            byte[] body = encodingResponse.getEncodedBody();
+            TopicsSnapshot loadedSnapshot = topicsStorage.getLoadedSnapshot();
+            if (body != null && loadedSnapshot != null && loadedSnapshot.getVersion() == snapshot.getVersion()) {
+                cache.put(snapshot.getVersion(), key, new EncodedResponse(encodingResponse.getContentType(),
+                        encodingResponse.getAppliedCoding(), body));
+            }
+        }
+    }
+
+    /**
+     * method for getting the key of the stored response, the requests with the same parameters
+     * in the different order are stored separately
+     */
+    private String getCacheKey(HttpServletRequest request, ContentCoding coding) {
+        String query = request.getQueryString() == null ? "" : request.getQueryString();
+        return coding.getName() + " " + request.getRequestURI() + "?" + query;
+    }
+
+    /**
+     * method for sending the stored response
+     */
+    private void send(EncodedResponse stored, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(stored.getContentType());
+        if (stored.getCoding() != ContentCoding.IDENTITY) {
+            response.setHeader(CONTENT_ENCODING_HEADER, stored.getCoding().getName());
+        }
+        response.setContentLength(stored.getBody().length);
+        response.getOutputStream().write(stored.getBody());
+    }
+
+    /**
+     * the response, which body is encoded while it's written. The content length set by the controller
+     * is dropped, since the encoded body has another one
+     */
+    private class EncodingResponse extends HttpServletResponseWrapper {
+        private final ContentCoding coding;
+        private final int captureLimit;
+        private EncodingOutputStream stream;
+        private PrintWriter writer;
+        private boolean passingThrough = false;
+
+        private EncodingResponse(HttpServletResponse response, ContentCoding coding, int captureLimit) {
+            super(response);
+            this.coding = coding;
+            this.captureLimit = captureLimit;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (writer != null) {
+                throw new IllegalStateException("getWriter() has already been called for this response");
+            }
+            if (stream == null) {
+                stream = createStream();
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                if (stream != null) {
+                    throw new IllegalStateException("getOutputStream() has already been called for this response");
+                }
+                stream = createStream();
+                writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (stream == null || stream.isStarted()) {
+                super.flushBuffer();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (stream != null) {
+                stream.resetPending();
+            }
+            super.resetBuffer();
+        }
+
+        @Override
+        public void setContentLength(int len) {
+        }
+
+        @Override
+        public void setContentLengthLong(long len) {
+        }
+
+        @Override
+        public void setHeader(String name, String value) {
+            if (!CONTENT_LENGTH_HEADER.equalsIgnoreCase(name)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(String name, String value) {
+            if (!CONTENT_LENGTH_HEADER.equalsIgnoreCase(name)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(String name, int value) {
+            if (!CONTENT_LENGTH_HEADER.equalsIgnoreCase(name)) {
+                super.setIntHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addIntHeader(String name, int value) {
+            if (!CONTENT_LENGTH_HEADER.equalsIgnoreCase(name)) {
+                super.addIntHeader(name, value);
+            }
+        }
+
+        /**
+         * method for making the stream of the body, which is sent as it is after the filter has passed it through
+         */
+        private EncodingOutputStream createStream() throws IOException {
+            EncodingOutputStream stream = new EncodingOutputStream((HttpServletResponse) getResponse(), coding, captureLimit);
+            if (passingThrough) {
+                stream.passThrough();
+            }
+            return stream;
+        }
+
+        /**
+         * method for sending the rest of the body without the encoding, if it hasn't been started yet
+         */
+        private void passThrough() throws IOException {
+            passingThrough = true;
+            if (writer != null) {
+                writer.flush();
+            }
+            if (stream != null) {
+                stream.passThrough();
+            }
+        }
+
+        /**
+         * method for writing the rest of the body after the request has been processed
+         */
+        private void finish() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            if (stream != null) {
+                stream.finish();
+            }
+        }
+
+        /**
+         * method for releasing the compressor of the failed request, the rest of the body is dropped
+         */
+        private void abort() throws IOException {
+            if (stream != null) {
+                stream.abort();
+            }
+        }
+
+        private byte[] getEncodedBody() {
+            return stream == null ? null : stream.getEncodedBody();
+        }
+
+        private ContentCoding getAppliedCoding() {
+            return stream == null ? ContentCoding.IDENTITY : stream.getAppliedCoding();
+        }
+    }
+
+    /**
+     * the stream, which keeps the beginning of the body until it's known to be large enough for the compression,
+     * and then compresses it to the response while it's written
+     */
+    private class EncodingOutputStream extends ServletOutputStream {
+        private final HttpServletResponse response;
+        private final ContentCoding coding;
+        private final int captureLimit;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private CapturingOutputStream capture;
+        private ServletOutputStream output;
+        private OutputStream target;
+        private ContentCoding appliedCoding;
+        private boolean finished = false;
+
+        private EncodingOutputStream(HttpServletResponse response, ContentCoding coding, int captureLimit) {
+            this.response = response;
+            this.coding = coding;
+            this.captureLimit = captureLimit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (target == null) {
+                if (pending.size() + len < minBytes) {
+                    pending.write(b, off, len);
+                    return;
+                }
+                start(coding);
+            }
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            //the pending beginning of the body is small, so it waits for the rest of it or the end of the request
+            if (target != null) {
+                target.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            //the response is completed by the filter, after the body is written
+        }
+
+        @Override
+        public boolean isReady() {
+            return output == null || output.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            //the compressor could block the non-blocking writes, so the body is sent as it is
+            try {
+                passThrough();
+            } catch (IOException e) {
+                throw new IllegalStateException("Non-blocking output couldn't be started", e);
+            }
+            if (appliedCoding != ContentCoding.IDENTITY) {
+                throw new IllegalStateException("Non-blocking output should be started before the encoded body is written");
+            }
+            output.setWriteListener(writeListener);
+        }
+
+        private boolean isStarted() {
+            return target != null;
+        }
+
+        private void resetPending() {
+            if (target == null) {
+                pending.reset();
+            }
+        }
+
+        /**
+         * method for sending the rest of the body as it is, if the encoded body hasn't been started yet
+         */
+        private void passThrough() throws IOException {
+            if (target == null) {
+                start(ContentCoding.IDENTITY);
+            }
+        }
+
+        /**
+         * method for starting the encoded body, the headers are set before the response is committed
+         */
+        private void start(ContentCoding coding) throws IOException {
+            appliedCoding = coding;
+            if (coding != ContentCoding.IDENTITY) {
+                response.setHeader(CONTENT_ENCODING_HEADER, coding.getName());
+            }
+            output = response.getOutputStream();
+            capture = new CapturingOutputStream(output, captureLimit);
+            target = coding.encode(capture, bufferBytes, level);
+            pending.writeTo(target);
+            pending = null;
+        }
+
+        /**
+         * method for completing the encoded body. The small body is sent as it is, with its length
+         */
+        private void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (target == null) {
+                response.setContentLength(pending.size());
+                start(ContentCoding.IDENTITY);
+            }
+            target.close();
+        }
+
+        /**
+         * method for ending the compressor without sending the rest of the encoded body
+         */
+        private void abort() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (target != null) {
+                capture.discard();
+                target.close();
+            }
+        }
+
+        private byte[] getEncodedBody() {
+            return finished && capture != null ? capture.getCaptured() : null;
+        }
+
+        private ContentCoding getAppliedCoding() {
+            return appliedCoding == null ? ContentCoding.IDENTITY : appliedCoding;
+        }
+    }
+
+    /**
+     * the stream, which keeps the copy of the written data until it exceeds the limit.
+     * It's not closed with the encoder, since the response output is completed by the container
+     */
+    private static class CapturingOutputStream extends FilterOutputStream {
+        private final int limit;
+        private ByteArrayOutputStream captured;
+        private boolean discarding = false;
+
+        private CapturingOutputStream(OutputStream out, int limit) {
+            super(out);
+            this.limit = limit;
+            this.captured = limit > 0 ? new ByteArrayOutputStream() : null;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (discarding) {
+                return;
+            }
+            out.write(b, off, len);
+            if (captured != null) {
+                if (captured.size() + len > limit) {
+                    captured = null;
+                } else {
+                    captured.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (!discarding) {
+                out.flush();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+        /**
+         * method for dropping the rest of the written data, so the encoder could be closed after the failure
+         */
+        private void discard() {
+            discarding = true;
+            captured = null;
+        }
+
+        private byte[] getCaptured() {
+            return captured == null ? null : captured.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.megafon.task.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Class for the content codings of the responses, which are negotiated with the Accept-Encoding header of the request.
+ * Only the codings the JDK could produce are supported, the others are never chosen.
+ */
+public enum ContentCoding {
+    GZIP("gzip"),
+    DEFLATE("deflate"),
+    IDENTITY("identity");
+
+    private static final String ANY_CODING = "*";
+    private static final String GZIP_ALIAS = "x-gzip";
+
+    private final String name;
+
+    ContentCoding(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the coding for the Content-Encoding header
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Method for choosing the coding of the response. The coding with the highest quality wins,
+     * gzip is preferred to deflate when their qualities are equal.
+     * @param acceptEncoding the value of the Accept-Encoding header, could be null
+     * @return the chosen coding, or IDENTITY if the client doesn't accept the compressed responses
+     */
+    public static ContentCoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.trim().isEmpty()) {
+            return IDENTITY;
+        }
+
+        double gzipQuality = -1;
+        double deflateQuality = -1;
+        double anyQuality = -1;
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double quality = parseQuality(parts);
+            if (GZIP.name.equals(coding) || GZIP_ALIAS.equals(coding)) {
+                gzipQuality = Math.max(gzipQuality, quality);
+            } else if (DEFLATE.name.equals(coding)) {
+                deflateQuality = Math.max(deflateQuality, quality);
+            } else if (ANY_CODING.equals(coding)) {
+                anyQuality = quality;
+            }
+        }
+
+        //the codings which are not listed get the quality of '*'
+        gzipQuality = gzipQuality < 0 ? anyQuality : gzipQuality;
+        deflateQuality = deflateQuality < 0 ? anyQuality : deflateQuality;
+        if (gzipQuality <= 0 && deflateQuality <= 0) {
+            return IDENTITY;
+        }
+        return gzipQuality >= deflateQuality ? GZIP : DEFLATE;
+    }
+
+    /**
+     * Method for wrapping the stream with the compressing one. Closing of the returned stream finishes the compressed data
+     * and closes the wrapped stream.
+     * @param out the stream for the encoded data
+     * @param bufferSize the size of the compressor output buffer
+     * @param level the compression level from 1 (fastest) to 9 (best), or -1 for the default one
+     * @return the stream for the data to encode, or the same stream for IDENTITY
+     * @throws IOException if the header of the compressed data couldn't be written
+     */
+    public OutputStream encode(OutputStream out, int bufferSize, final int level) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPOutputStream(out, bufferSize) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+            case DEFLATE:
+                return new DeflaterOutputStream(out, new Deflater(level), bufferSize) {
+                    @Override
+                    public void close() throws IOException {
+                        //the deflater given to the stream is not ended by it
+                        try {
+                            super.close();
+                        } finally {
+                            def.end();
+                        }
+                    }
+                };
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * method for parsing the quality parameter of the Accept-Encoding item, which is 1 if it's absent or malformed
+     */
+    private static double parseQuality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    return 1;
+                }
+            }
+        }
+        return 1;
+    }
+}
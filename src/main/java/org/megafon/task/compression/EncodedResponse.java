@@ -0,0 +1,33 @@
+package org.megafon.task.compression;
+
+/**
+ * Class for the stored response, which is sent again without the serialization and the compression
+ */
+public class EncodedResponse {
+    private final String contentType;
+    private final ContentCoding coding;
+    private final byte[] body;
+
+    /**
+     * @param contentType the content type of the response with its charset
+     * @param coding the coding the body is encoded with
+     * @param body the encoded body
+     */
+    public EncodedResponse(String contentType, ContentCoding coding, byte[] body) {
+        this.contentType = contentType;
+        this.coding = coding;
+        this.body = body;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public ContentCoding getCoding() {
+        return coding;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+}
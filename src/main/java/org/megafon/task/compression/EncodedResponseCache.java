@@ -0,0 +1,96 @@
+package org.megafon.task.compression;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class for the encoded responses of one version of the topics. The responses of the older versions are dropped
+ * as soon as the newer version is seen, and the least recently used ones are evicted when the cache is full.
+ */
+public class EncodedResponseCache {
+    private final long capacityBytes;
+    private final LinkedHashMap<String, EncodedResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+    private long version = -1;
+    private long sizeBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacityBytes the maximum total size of the stored bodies
+     */
+    public EncodedResponseCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Method for getting the stored response
+     * @param version the version of the topics the response should be made of
+     * @param key the request with the coding of the response
+     * @return the response, or null if it isn't stored for this version
+     */
+    public synchronized EncodedResponse get(long version, String key) {
+        updateVersion(version);
+        EncodedResponse response = this.version == version ? responses.get(key) : null;
+        if (response == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return response;
+    }
+
+    /**
+     * Method for storing the response. It's not stored if it's larger than the cache or the version is outdated.
+     * @param version the version of the topics the response is made of
+     * @param key the request with the coding of the response
+     * @param response the response to store
+     */
+    public synchronized void put(long version, String key, EncodedResponse response) {
+        updateVersion(version);
+        long size = response.getBody().length;
+        if (this.version != version || size > capacityBytes) {
+            return;
+        }
+
+        EncodedResponse previous = responses.put(key, response);
+        if (previous != null) {
+            sizeBytes -= previous.getBody().length;
+        }
+        sizeBytes += size;
+
+        //the iteration order is the access order, so the least recently used responses go first
+        Iterator<Map.Entry<String, EncodedResponse>> iterator = responses.entrySet().iterator();
+        while (sizeBytes > capacityBytes && iterator.hasNext()) {
+            sizeBytes -= iterator.next().getValue().getBody().length;
+            iterator.remove();
+        }
+    }
+
+    public synchronized int getResponsesCount() {
+        return responses.size();
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * method for dropping the responses of the older version
+     */
+    private void updateVersion(long version) {
+        if (version > this.version) {
+            this.version = version;
+            responses.clear();
+            sizeBytes = 0;
+        }
+    }
+}
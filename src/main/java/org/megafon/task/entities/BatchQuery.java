@@ -0,0 +1,39 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.Map;
+
+/**
+ * Class for the request entity of the batch, with the endpoint name and its parameters
+ */
+public class BatchQuery {
+    private String endpoint;
+    private Map<String, String> params;
+
+    public BatchQuery() {
+    }
+
+    public BatchQuery(String endpoint, Map<String, String> params) {
+        this.endpoint = endpoint;
+        this.params = params;
+    }
+
+    @JsonProperty(value = "endpoint")
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @JsonProperty(value = "params")
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public void setEndpoint(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public void setParams(Map<String, String> params) {
+        this.params = params;
+    }
+}
@@ -0,0 +1,36 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Class for the result entity of the batch request, with the body the endpoint would respond with
+ */
+@JsonPropertyOrder({"endpoint", "status", "body"})
+public class BatchResult {
+    private String endpoint;
+    private HttpStatus status;
+    private Object body;
+
+    public BatchResult(String endpoint, HttpStatus status, Object body) {
+        this.endpoint = endpoint;
+        this.status = status;
+        this.body = body;
+    }
+
+    @JsonProperty(value = "endpoint")
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @JsonProperty(value = "status")
+    public int getStatus() {
+        return status.value();
+    }
+
+    @JsonProperty(value = "body")
+    public Object getBody() {
+        return body;
+    }
+}
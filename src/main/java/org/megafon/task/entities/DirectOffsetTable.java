@@ -0,0 +1,57 @@
+package org.megafon.task.entities;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class for the offset table stored out of the heap in the direct buffers.
+ * The message counts are in the buffer of the table, which is shared with the other tables of the same growing file,
+ * the partition numbers are in the layout, which could be shared with the other tables.
+ * Only the buffers descriptors are kept in the heap, so the heap usage doesn't depend on the amount of the offsets.
+ */
+public class DirectOffsetTable implements OffsetTable {
+    private final PartitionLayout layout;
+    private final ByteBuffer buffer;
+    private final int size;
+
+    /**
+     * @param layout partition numbers stored out of the heap, which could be shared with the other tables
+     * @param buffer the direct buffer in the native order with the message counts at its beginning, as many of them
+     *               as the layout has. It's not copied, so the counts in it should never be changed
+     */
+    public DirectOffsetTable(PartitionLayout layout, ByteBuffer buffer) {
+        this.layout = layout;
+        this.size = layout.size();
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int getPartitionNo(int index) {
+        return layout.getPartitionNo(index);
+    }
+
+    @Override
+    public long getMsgCount(int index) {
+        return buffer.getLong(index * Long.BYTES);
+    }
+
+    @Override
+    public PartitionLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public long getHeapSize() {
+        return MemorySizes.object(2 * MemorySizes.REFERENCE + Integer.BYTES) + MemorySizes.DIRECT_BUFFER;
+    }
+
+    @Override
+    public long getDirectSize() {
+        //the buffer of the growing file is shared by its successive tables, so only the counts of this one are counted
+        return (long) size * Long.BYTES;
+    }
+}
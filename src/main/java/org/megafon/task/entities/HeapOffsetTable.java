@@ -0,0 +1,48 @@
+package org.megafon.task.entities;
+
+/**
+ * Class for the offset table stored in the heap as primitive arrays
+ */
+public class HeapOffsetTable implements OffsetTable {
+    private final PartitionLayout layout;
+    private final long[] msgCounts;
+
+    /**
+     * @param layout partition numbers, which could be shared with the other tables
+     * @param msgCounts message counts of the same length as the layout, the array is not copied
+     */
+    public HeapOffsetTable(PartitionLayout layout, long[] msgCounts) {
+        this.layout = layout;
+        this.msgCounts = msgCounts;
+    }
+
+    @Override
+    public int size() {
+        return msgCounts.length;
+    }
+
+    @Override
+    public int getPartitionNo(int index) {
+        return layout.getPartitionNo(index);
+    }
+
+    @Override
+    public long getMsgCount(int index) {
+        return msgCounts[index];
+    }
+
+    @Override
+    public PartitionLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public long getHeapSize() {
+        return MemorySizes.object(2 * MemorySizes.REFERENCE) + MemorySizes.array(msgCounts.length, Long.BYTES);
+    }
+
+    @Override
+    public long getDirectSize() {
+        return 0L;
+    }
+}
@@ -0,0 +1,88 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+import java.util.List;
+
+/**
+ * Class for the estimated memory footprint of the loaded topics. The partition layouts and the timestamps are shared
+ * by the runs and the topics, so they are counted once in the totals and not in the topics.
+ */
+@JsonPropertyOrder({"topics", "partition_layouts", "layouts_heap_bytes", "layouts_direct_bytes", "time_stamps",
+        "time_stamps_heap_bytes", "total_heap_bytes", "total_direct_bytes"})
+public class MemoryFootprint {
+    private List<TopicFootprint> topics;
+    private int partitionLayouts;
+    private long layoutsHeapBytes;
+    private long layoutsDirectBytes;
+    private int timeStamps;
+    private long timeStampsHeapBytes;
+    private long totalHeapBytes;
+    private long totalDirectBytes;
+
+    /**
+     * @param topics the footprints of the topics
+     * @param partitionLayouts the amount of the distinct partition layouts of all the runs
+     * @param layoutsHeapBytes the size of the partition layouts in the heap
+     * @param layoutsDirectBytes the size of the partition layouts out of the heap
+     * @param timeStamps the amount of the distinct timestamps of all the runs
+     * @param timeStampsHeapBytes the size of the timestamps with their formatted values in the heap
+     */
+    public MemoryFootprint(List<TopicFootprint> topics, int partitionLayouts, long layoutsHeapBytes, long layoutsDirectBytes,
+                           int timeStamps, long timeStampsHeapBytes) {
+        this.topics = topics;
+        this.partitionLayouts = partitionLayouts;
+        this.layoutsHeapBytes = layoutsHeapBytes;
+        this.layoutsDirectBytes = layoutsDirectBytes;
+        this.timeStamps = timeStamps;
+        this.timeStampsHeapBytes = timeStampsHeapBytes;
+
+        this.totalHeapBytes = layoutsHeapBytes + timeStampsHeapBytes;
+        this.totalDirectBytes = layoutsDirectBytes;
+        for (TopicFootprint topic : topics) {
+            totalHeapBytes += topic.getHeapBytes();
+            totalDirectBytes += topic.getDirectBytes();
+        }
+    }
+
+    @JsonProperty(value = "topics")
+    public List<TopicFootprint> getTopics() {
+        return topics;
+    }
+
+    @JsonProperty(value = "partition_layouts")
+    public int getPartitionLayouts() {
+        return partitionLayouts;
+    }
+
+    @JsonProperty(value = "layouts_heap_bytes")
+    public long getLayoutsHeapBytes() {
+        return layoutsHeapBytes;
+    }
+
+    @JsonProperty(value = "layouts_direct_bytes")
+    public long getLayoutsDirectBytes() {
+        return layoutsDirectBytes;
+    }
+
+    @JsonProperty(value = "time_stamps")
+    public int getTimeStamps() {
+        return timeStamps;
+    }
+
+    @JsonProperty(value = "time_stamps_heap_bytes")
+    public long getTimeStampsHeapBytes() {
+        return timeStampsHeapBytes;
+    }
+
+    @JsonProperty(value = "total_heap_bytes")
+    public long getTotalHeapBytes() {
+        return totalHeapBytes;
+    }
+
+    @JsonProperty(value = "total_direct_bytes")
+    public long getTotalDirectBytes() {
+        return totalDirectBytes;
+    }
+}
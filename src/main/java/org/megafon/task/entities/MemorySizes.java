@@ -0,0 +1,47 @@
+package org.megafon.task.entities;
+
+/**
+ * Class for the estimation of the heap sizes of the objects on the 64-bit JVM with the compressed references.
+ * The sizes are approximate, they are used only for the memory footprint report.
+ */
+public final class MemorySizes {
+    public static final int OBJECT_HEADER = 12;
+    public static final int ARRAY_HEADER = 16;
+    public static final int REFERENCE = 4;
+    //the LinkedHashMap entry with its share of the hash table, which is kept at most 3/4 full
+    public static final int LINKED_SET_ENTRY = 48;
+    public static final int LINKED_SET = 72;
+    //the DirectByteBuffer with its Cleaner and Deallocator
+    public static final int DIRECT_BUFFER = 136;
+
+    private MemorySizes() {
+    }
+
+    /**
+     * @return the size aligned to 8 bytes as the objects are
+     */
+    public static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    /**
+     * @return the size of the object with the fields of the specified total size
+     */
+    public static long object(long fieldsSize) {
+        return align(OBJECT_HEADER + fieldsSize);
+    }
+
+    /**
+     * @return the size of the array with the elements of the specified size
+     */
+    public static long array(long length, int elementSize) {
+        return align(ARRAY_HEADER + length * elementSize);
+    }
+
+    /**
+     * @return the size of the string with its characters array
+     */
+    public static long string(String string) {
+        return object(REFERENCE + 2 * 4) + array(string.length(), 2);
+    }
+}
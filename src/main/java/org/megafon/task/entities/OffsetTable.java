@@ -0,0 +1,43 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Interface for the offsets of a run, stored as a table of partition numbers and message counts
+ * instead of the object per offset
+ */
+@JsonSerialize(using = OffsetTableSerializer.class)
+public interface OffsetTable {
+
+    /**
+     * @return the amount of the offsets in the table
+     */
+    int size();
+
+    /**
+     * @param index index of the offset in the table, in the order of the offsets file lines
+     * @return partition number of the offset
+     */
+    int getPartitionNo(int index);
+
+    /**
+     * @param index index of the offset in the table, in the order of the offsets file lines
+     * @return message count of the offset
+     */
+    long getMsgCount(int index);
+
+    /**
+     * @return the partition numbers of the table, which could be shared with the other tables
+     */
+    PartitionLayout getLayout();
+
+    /**
+     * @return the estimated size of the table in the heap in bytes, without its layout
+     */
+    long getHeapSize();
+
+    /**
+     * @return the size of the table out of the heap in bytes, without its layout
+     */
+    long getDirectSize();
+}
@@ -0,0 +1,89 @@
+package org.megafon.task.entities;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Class for building the offset table line by line, without the object per offset creation.
+ * The offsets of the built tables are never changed, so the tables stored out of the heap share the direct buffers
+ * of the builder: the next table of the growing file gets the same buffers with the offsets appended to them,
+ * and the buffers twice as large are allocated only when they are full.
+ */
+public class OffsetTableBuilder {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] partitionNos = new int[INITIAL_CAPACITY];
+    private long[] msgCounts = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    //the direct buffers of the tables built so far and the amount of the offsets copied into them
+    private ByteBuffer directMsgCounts;
+    private int directMsgCountsSize = 0;
+    private ByteBuffer directPartitionNos;
+    private int directPartitionNosSize = 0;
+
+    public void add(int partitionNo, long msgCount) {
+        if (size == partitionNos.length) {
+            partitionNos = Arrays.copyOf(partitionNos, size * 2);
+            msgCounts = Arrays.copyOf(msgCounts, size * 2);
+        }
+        partitionNos[size] = partitionNo;
+        msgCounts[size] = msgCount;
+        size++;
+    }
+
+    /**
+     * @param offHeap true if the table should be stored out of the heap
+     * @param layouts the pool of the layouts to share the partition numbers with the other tables,
+     *                or null if the table should have its own layout
+     * @return the table with all the added offsets
+     */
+    public OffsetTable build(boolean offHeap, PartitionLayouts layouts) {
+        if (!offHeap) {
+            PartitionLayout layout = layouts == null ? new PartitionLayout(partitionNos, size, false)
+                    : layouts.intern(partitionNos, size, false, null);
+            return new HeapOffsetTable(layout, Arrays.copyOf(msgCounts, size));
+        }
+
+        //the partition numbers of the file read at once are usually shared with the other runs,
+        //so the own buffer is kept for them only when the file grows
+        ByteBuffer layoutBuffer = null;
+        if (directMsgCounts != null) {
+            directPartitionNos = ensureCapacity(directPartitionNos, size * Integer.BYTES);
+            for (int i = directPartitionNosSize; i < size; i++) {
+                directPartitionNos.putInt(i * Integer.BYTES, partitionNos[i]);
+            }
+            directPartitionNosSize = size;
+            layoutBuffer = directPartitionNos;
+        }
+        PartitionLayout layout = layouts != null ? layouts.intern(partitionNos, size, true, layoutBuffer)
+                : layoutBuffer != null ? new PartitionLayout(partitionNos, size, layoutBuffer)
+                : new PartitionLayout(partitionNos, size, true);
+
+        directMsgCounts = ensureCapacity(directMsgCounts, size * Long.BYTES);
+        for (int i = directMsgCountsSize; i < size; i++) {
+            directMsgCounts.putLong(i * Long.BYTES, msgCounts[i]);
+        }
+        directMsgCountsSize = size;
+        return new DirectOffsetTable(layout, directMsgCounts);
+    }
+
+    /**
+     * method for getting the direct buffer with at least the required capacity. The buffer is replaced with the one
+     * twice as large when it's full, the tables built before keep the old one
+     */
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int capacity) {
+        if (buffer != null && buffer.capacity() >= capacity) {
+            return buffer;
+        }
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(buffer == null ? capacity : Math.max(capacity, buffer.capacity() * 2))
+                .order(ByteOrder.nativeOrder());
+        if (buffer != null) {
+            ByteBuffer contents = buffer.duplicate();
+            contents.clear();
+            newBuffer.put(contents);
+        }
+        return newBuffer;
+    }
+}
@@ -0,0 +1,26 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Class for writing the offset table to JSON as the list of the objects with the partition number
+ * and the message count, but straight from the table, without the object per offset creation
+ */
+public class OffsetTableSerializer extends JsonSerializer<OffsetTable> {
+
+    @Override
+    public void serialize(OffsetTable table, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        generator.writeStartArray();
+        for (int i = 0; i < table.size(); i++) {
+            generator.writeStartObject();
+            generator.writeNumberField("partition_no", table.getPartitionNo(i));
+            generator.writeNumberField("message_count", table.getMsgCount(i));
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+}
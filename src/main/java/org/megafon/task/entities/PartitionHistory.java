@@ -0,0 +1,46 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.util.List;
+
+/**
+ * Class for the partition history entity, which is the message counts of one partition in the runs
+ * within the time range
+ */
+@JsonSerialize(using = PartitionHistorySerializer.class)
+public class PartitionHistory {
+    private String topicName;
+    private int partitionNo;
+    private List<Run> runs;
+    private long[] msgCounts;
+
+    /**
+     * @param topicName the name of the topic
+     * @param partitionNo the partition number
+     * @param runs the runs with the partition, ordered by the timestamp
+     * @param msgCounts the message counts of the partition in the runs, at the same indexes as the runs
+     */
+    public PartitionHistory(String topicName, int partitionNo, List<Run> runs, long[] msgCounts) {
+        this.topicName = topicName;
+        this.partitionNo = partitionNo;
+        this.runs = runs;
+        this.msgCounts = msgCounts;
+    }
+
+    public String getTopicName() {
+        return topicName;
+    }
+
+    public int getPartitionNo() {
+        return partitionNo;
+    }
+
+    public List<Run> getRuns() {
+        return runs;
+    }
+
+    public long[] getMsgCounts() {
+        return msgCounts;
+    }
+}
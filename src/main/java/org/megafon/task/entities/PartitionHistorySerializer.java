@@ -0,0 +1,33 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Class for writing the partition history to JSON without the point objects creation,
+ * with the formatted timestamps of the runs
+ */
+public class PartitionHistorySerializer extends JsonSerializer<PartitionHistory> {
+
+    @Override
+    public void serialize(PartitionHistory history, JsonGenerator generator, SerializerProvider provider) throws IOException {
+        List<Run> runs = history.getRuns();
+
+        generator.writeStartObject();
+        generator.writeStringField("topic_name", history.getTopicName());
+        generator.writeNumberField("partition_no", history.getPartitionNo());
+        generator.writeArrayFieldStart("history");
+        for (int i = 0; i < runs.size(); i++) {
+            generator.writeStartObject();
+            generator.writeStringField("time_stamp", runs.get(i).getStringTimeStamp());
+            generator.writeNumberField("message_count", history.getMsgCounts()[i]);
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+}
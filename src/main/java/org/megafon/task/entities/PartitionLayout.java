@@ -0,0 +1,195 @@
+package org.megafon.task.entities;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Class for the partition numbers of the offset table in the order of the offsets file lines.
+ * The runs of the topic usually have the same partitions, so the layout is immutable and is shared
+ * by all the tables with the same partition numbers. It's stored in the heap or in the direct buffer
+ * as the tables are.
+ *
+ * The partitions are searched by the order of the offsets sorted by the partition numbers, which is made
+ * on the first search and is stored in the same place as the layout itself.
+ */
+public class PartitionLayout {
+    private final int[] partitionNos;
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int hash;
+    private volatile int[] sortedIndexes;
+    private volatile ByteBuffer sortedBuffer;
+
+    /**
+     * Constructor, which copies the partition numbers
+     * @param partitionNos partition numbers
+     * @param size amount of the partition numbers to take from the array
+     * @param offHeap true if the layout should be stored out of the heap
+     */
+    public PartitionLayout(int[] partitionNos, int size, boolean offHeap) {
+        this.size = size;
+        this.hash = hash(partitionNos, size);
+        if (offHeap) {
+            this.partitionNos = null;
+            this.buffer = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < size; i++) {
+                buffer.putInt(i * Integer.BYTES, partitionNos[i]);
+            }
+        } else {
+            this.partitionNos = new int[size];
+            System.arraycopy(partitionNos, 0, this.partitionNos, 0, size);
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Constructor for the layout stored out of the heap in the existing buffer
+     * @param partitionNos partition numbers
+     * @param size amount of the partition numbers to take from the array
+     * @param buffer the direct buffer in the native order with the same partition numbers at its beginning.
+     *               It's not copied, so the numbers in it should never be changed
+     */
+    public PartitionLayout(int[] partitionNos, int size, ByteBuffer buffer) {
+        this.size = size;
+        this.hash = hash(partitionNos, size);
+        this.partitionNos = null;
+        this.buffer = buffer;
+    }
+
+    /**
+     * @return the amount of the partition numbers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index index of the offset in the table
+     * @return partition number of the offset
+     */
+    public int getPartitionNo(int index) {
+        return partitionNos != null ? partitionNos[index] : buffer.getInt(index * Integer.BYTES);
+    }
+
+    /**
+     * @param position position in the order of the offsets sorted by the partition numbers
+     * @return index of the offset in the table
+     */
+    public int getSortedIndex(int position) {
+        if (buffer != null) {
+            ByteBuffer sorted = sortedBuffer;
+            if (sorted == null) {
+                int[] indexes = sortIndexes();
+                sorted = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder());
+                for (int i = 0; i < size; i++) {
+                    sorted.putInt(i * Integer.BYTES, indexes[i]);
+                }
+                sortedBuffer = sorted;
+            }
+            return sorted.getInt(position * Integer.BYTES);
+        }
+        int[] sorted = sortedIndexes;
+        if (sorted == null) {
+            sorted = sortIndexes();
+            sortedIndexes = sorted;
+        }
+        return sorted[position];
+    }
+
+    /**
+     * Method for finding the offsets of the partition by the binary search. The repeated partition numbers
+     * are next to each other in the sorted order.
+     * @param partitionNo partition number
+     * @return position of the first offset of the partition in the order of the offsets sorted by the partition numbers,
+     *         or -1 if there is no such partition in the layout
+     */
+    public int findPartition(int partitionNo) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getPartitionNo(getSortedIndex(middle)) < partitionNo) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < size && getPartitionNo(getSortedIndex(low)) == partitionNo ? low : -1;
+    }
+
+    public boolean isOffHeap() {
+        return buffer != null;
+    }
+
+    /**
+     * @return the estimated size of the layout with its sorted order, if it's made, in the heap in bytes
+     */
+    public long getHeapSize() {
+        long size = MemorySizes.object(4 * MemorySizes.REFERENCE + 2 * Integer.BYTES);
+        size += buffer != null ? MemorySizes.DIRECT_BUFFER : MemorySizes.array(partitionNos.length, Integer.BYTES);
+        if (sortedIndexes != null) {
+            size += MemorySizes.array(sortedIndexes.length, Integer.BYTES);
+        }
+        if (sortedBuffer != null) {
+            size += MemorySizes.DIRECT_BUFFER;
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the layout with its sorted order, if it's made, out of the heap in bytes. Only the partition
+     *         numbers of the layout are counted, since the buffer of the growing file is shared by its successive layouts
+     */
+    public long getDirectSize() {
+        long size = buffer != null ? (long) this.size * Integer.BYTES : 0L;
+        if (sortedBuffer != null) {
+            size += sortedBuffer.capacity();
+        }
+        return size;
+    }
+
+    /**
+     * method for sorting the indexes of the offsets by their partition numbers, and by the indexes themselves
+     * for the same partition numbers. The partition number and the index are packed into one long, so the sort
+     * is the primitive one
+     */
+    private int[] sortIndexes() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) getPartitionNo(i) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] indexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            indexes[i] = (int) keys[i];
+        }
+        return indexes;
+    }
+
+    /**
+     * @return true if the layout has the same partition numbers as the first size elements of the array
+     */
+    boolean matches(int[] partitionNos, int size, int hash) {
+        if (this.size != size || this.hash != hash) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (getPartitionNo(i) != partitionNos[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the hash of the first size elements of the array, the same as the layout with them has
+     */
+    static int hash(int[] partitionNos, int size) {
+        int hash = 1;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + partitionNos[i];
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,70 @@
+package org.megafon.task.entities;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class for the pool of the partition layouts, which makes the offset tables with the same partition numbers
+ * share one layout. The layouts are referenced weakly, so the ones not used by any table are collected.
+ */
+public class PartitionLayouts {
+    //the layouts by the hash of their partition numbers
+    private final Map<Integer, List<WeakReference<PartitionLayout>>> layouts = new HashMap<>();
+
+    /**
+     * Method for getting the layout with the partition numbers
+     * @param partitionNos partition numbers
+     * @param size amount of the partition numbers to take from the array
+     * @param offHeap true if the layout should be stored out of the heap
+     * @param directBuffer the direct buffer with the same partition numbers for the new layout stored out of the heap,
+     *                     or null if the numbers should be copied
+     * @return the layout from the pool if there is the one with the same partition numbers, or the new one
+     */
+    public synchronized PartitionLayout intern(int[] partitionNos, int size, boolean offHeap, ByteBuffer directBuffer) {
+        int hash = PartitionLayout.hash(partitionNos, size);
+        List<WeakReference<PartitionLayout>> candidates = layouts.get(hash);
+        if (candidates == null) {
+            candidates = new ArrayList<>(1);
+            layouts.put(hash, candidates);
+        }
+
+        Iterator<WeakReference<PartitionLayout>> iterator = candidates.iterator();
+        while (iterator.hasNext()) {
+            PartitionLayout layout = iterator.next().get();
+            if (layout == null) {
+                iterator.remove();
+            } else if (layout.isOffHeap() == offHeap && layout.matches(partitionNos, size, hash)) {
+                return layout;
+            }
+        }
+
+        PartitionLayout layout = offHeap && directBuffer != null ? new PartitionLayout(partitionNos, size, directBuffer)
+                : new PartitionLayout(partitionNos, size, offHeap);
+        candidates.add(new WeakReference<>(layout));
+        return layout;
+    }
+
+    /**
+     * Method for removing the pool entries of the collected layouts
+     */
+    public synchronized void purge() {
+        Iterator<List<WeakReference<PartitionLayout>>> listsIterator = layouts.values().iterator();
+        while (listsIterator.hasNext()) {
+            List<WeakReference<PartitionLayout>> candidates = listsIterator.next();
+            Iterator<WeakReference<PartitionLayout>> iterator = candidates.iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().get() == null) {
+                    iterator.remove();
+                }
+            }
+            if (candidates.isEmpty()) {
+                listsIterator.remove();
+            }
+        }
+    }
+}
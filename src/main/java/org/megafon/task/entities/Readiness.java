@@ -0,0 +1,58 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Class for the readiness entity with the progress of the initial load
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"ready", "topics_loaded", "topics_total", "runs_loaded", "runs_total", "error"})
+public class Readiness {
+    private boolean ready;
+    private int topicsLoaded;
+    private int topicsTotal;
+    private int runsLoaded;
+    private int runsTotal;
+    private String error;
+
+    public Readiness(boolean ready, int topicsLoaded, int topicsTotal, int runsLoaded, int runsTotal, String error) {
+        this.ready = ready;
+        this.topicsLoaded = topicsLoaded;
+        this.topicsTotal = topicsTotal;
+        this.runsLoaded = runsLoaded;
+        this.runsTotal = runsTotal;
+        this.error = error;
+    }
+
+    @JsonProperty(value = "ready")
+    public boolean isReady() {
+        return ready;
+    }
+
+    @JsonProperty(value = "topics_loaded")
+    public int getTopicsLoaded() {
+        return topicsLoaded;
+    }
+
+    @JsonProperty(value = "topics_total")
+    public int getTopicsTotal() {
+        return topicsTotal;
+    }
+
+    @JsonProperty(value = "runs_loaded")
+    public int getRunsLoaded() {
+        return runsLoaded;
+    }
+
+    @JsonProperty(value = "runs_total")
+    public int getRunsTotal() {
+        return runsTotal;
+    }
+
+    @JsonProperty(value = "error")
+    public String getError() {
+        return error;
+    }
+}
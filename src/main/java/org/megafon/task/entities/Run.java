@@ -5,31 +5,43 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import org.megafon.task.readers.RunsFileReader;
 
 import java.util.Date;
-import java.util.List;
 
 
 /**
- * Class for the run entity with a list of offsets within
+ * Class for the run entity with a table of offsets within.
+ * The run is immutable, since its timestamp objects are shared by the other runs of the same time
+ * and the run itself is shared by the filtered views of the topics, so the date should never be modified either.
  *
  * Created by Alexey on 11/09/2015.
  */
 
 public class Run implements Comparable<Run>{
-    private Date timeStamp;
+    private final Date timeStamp;
+    //the formatted timestamp is shared by all the responses with the run,
+    //named unlike the property to keep the order of the JSON properties
+    private final String formattedTimeStamp;
 
-    private List<Offset> offsets;
+    private final OffsetTable offsetTable;
 
-    public Run() {
+    public Run(Date timeStamp, OffsetTable offsetTable) {
+        this(timeStamp, timeStamp == null ? null : RunsFileReader.formatTimeStamp(timeStamp), offsetTable);
     }
 
-    public Run(Date timeStamp, List<Offset> offsets) {
+    /**
+     * Constructor for the run, which shares its timestamp objects with the other runs of the same time
+     * @param timeStamp the timestamp
+     * @param formattedTimeStamp the same timestamp formatted with RunsFileReader.formatTimeStamp
+     * @param offsetTable the offsets of the run
+     */
+    public Run(Date timeStamp, String formattedTimeStamp, OffsetTable offsetTable) {
         this.timeStamp = timeStamp;
-        this.offsets = offsets;
+        this.formattedTimeStamp = formattedTimeStamp;
+        this.offsetTable = offsetTable;
     }
 
     @JsonProperty(value = "time_stamp")
     public String getStringTimeStamp() {
-        return RunsFileReader.dateFormat.format(timeStamp);
+        return formattedTimeStamp;
     }
 
     @JsonIgnore
@@ -38,16 +50,8 @@ public class Run implements Comparable<Run>{
     }
 
     @JsonProperty(value = "offsets")
-    public List<Offset> getOffsets() {
-        return offsets;
-    }
-
-    public void setTimeStamp(Date timeStamp) {
-        this.timeStamp = timeStamp;
-    }
-
-    public void setOffsets(List<Offset> offsets) {
-        this.offsets = offsets;
+    public OffsetTable getOffsetTable() {
+        return offsetTable;
     }
 
     @Override
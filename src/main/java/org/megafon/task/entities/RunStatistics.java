@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import java.util.Date;
+import java.util.Map;
 
 /**
  * Class for the run statistics entity
@@ -18,10 +19,22 @@ public class RunStatistics extends SimpleRunInfo {
     private Long minMsgCount = null;
     private Long maxMsgCount = null;
     private Double avgMsgCount = null;
+    private Map<String, Long> percentiles = null;
+
+    //the confidence bounds of the approximate statistics and the amount of the partitions they are calculated from
+    private long[] totalMsgCountBounds = null;
+    private double[] avgMsgCountBounds = null;
+    private Map<String, long[]> percentilesBounds = null;
+    private Integer sampledPartitions = null;
+
     public RunStatistics(Date timestamp, String topicName) {
         super(timestamp, topicName);
     }
 
+    public RunStatistics(Run run, String topicName) {
+        super(run, topicName);
+    }
+
     @JsonProperty(value = "total_message_count")
     public Long getTotalMsgCount() {
         return totalMsgCount;
@@ -42,6 +55,31 @@ public class RunStatistics extends SimpleRunInfo {
         return avgMsgCount;
     }
 
+    @JsonProperty(value = "percentiles")
+    public Map<String, Long> getPercentiles() {
+        return percentiles;
+    }
+
+    @JsonProperty(value = "total_message_count_bounds")
+    public long[] getTotalMsgCountBounds() {
+        return totalMsgCountBounds;
+    }
+
+    @JsonProperty(value = "average_message_count_bounds")
+    public double[] getAvgMsgCountBounds() {
+        return avgMsgCountBounds;
+    }
+
+    @JsonProperty(value = "percentiles_bounds")
+    public Map<String, long[]> getPercentilesBounds() {
+        return percentilesBounds;
+    }
+
+    @JsonProperty(value = "sampled_partitions")
+    public Integer getSampledPartitions() {
+        return sampledPartitions;
+    }
+
     public void setTotalMsgCount(Long totalMsgCount) {
         this.totalMsgCount = totalMsgCount;
     }
@@ -57,4 +95,24 @@ public class RunStatistics extends SimpleRunInfo {
     public void setAvgMsgCount(Double avgMsgCount) {
         this.avgMsgCount = avgMsgCount;
     }
+
+    public void setPercentiles(Map<String, Long> percentiles) {
+        this.percentiles = percentiles;
+    }
+
+    public void setTotalMsgCountBounds(long[] totalMsgCountBounds) {
+        this.totalMsgCountBounds = totalMsgCountBounds;
+    }
+
+    public void setAvgMsgCountBounds(double[] avgMsgCountBounds) {
+        this.avgMsgCountBounds = avgMsgCountBounds;
+    }
+
+    public void setPercentilesBounds(Map<String, long[]> percentilesBounds) {
+        this.percentilesBounds = percentilesBounds;
+    }
+
+    public void setSampledPartitions(Integer sampledPartitions) {
+        this.sampledPartitions = sampledPartitions;
+    }
 }
@@ -13,6 +13,8 @@ import java.util.Date;
  */
 public class SimpleRunInfo {
     private Date timeStamp;
+    //named unlike the property to keep the order of the JSON properties
+    private String formattedTimeStamp;
     private String topicName;
 
     public SimpleRunInfo(Date timestamp, String topicName) {
@@ -20,9 +22,18 @@ public class SimpleRunInfo {
         this.topicName = topicName;
     }
 
+    /**
+     * Constructor, which shares the formatted timestamp of the run instead of formatting it again
+     */
+    public SimpleRunInfo(Run run, String topicName) {
+        this.timeStamp = run.getTimeStamp();
+        this.formattedTimeStamp = run.getStringTimeStamp();
+        this.topicName = topicName;
+    }
+
     @JsonProperty(value = "time_stamp")
     public String getStringTimeStamp() {
-        return RunsFileReader.dateFormat.format(timeStamp);
+        return formattedTimeStamp != null ? formattedTimeStamp : RunsFileReader.formatTimeStamp(timeStamp);
     }
 
     @JsonIgnore
@@ -0,0 +1,66 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import org.megafon.task.readers.RunsFileReader;
+
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Class for the slow request entity with the durations of its phases
+ */
+@JsonPropertyOrder({"request", "status", "time_stamp", "duration_ms", "phases"})
+public class SlowRequest {
+    private String request;
+    private int status;
+    private Date timeStamp;
+    private double durationMs;
+    private Map<String, Double> phases;
+
+    /**
+     * @param request the path of the request with its query
+     * @param status the status code of the response
+     * @param timeStamp the time the request has completed
+     * @param durationMs the duration of the request in milliseconds
+     * @param phases the durations of the request phases in milliseconds
+     */
+    public SlowRequest(String request, int status, Date timeStamp, double durationMs, Map<String, Double> phases) {
+        this.request = request;
+        this.status = status;
+        this.timeStamp = timeStamp;
+        this.durationMs = durationMs;
+        this.phases = phases;
+    }
+
+    @JsonProperty(value = "request")
+    public String getRequest() {
+        return request;
+    }
+
+    @JsonProperty(value = "status")
+    public int getStatus() {
+        return status;
+    }
+
+    @JsonProperty(value = "time_stamp")
+    public String getStringTimeStamp() {
+        return RunsFileReader.formatTimeStamp(timeStamp);
+    }
+
+    @JsonIgnore
+    public Date getTimeStamp() {
+        return timeStamp;
+    }
+
+    @JsonProperty(value = "duration_ms")
+    public double getDurationMs() {
+        return durationMs;
+    }
+
+    @JsonProperty(value = "phases")
+    public Map<String, Double> getPhases() {
+        return phases;
+    }
+}
@@ -0,0 +1,59 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import org.megafon.task.readers.RunsFileReader;
+
+import java.util.Date;
+
+/**
+ * Class for the entry of the topics or partitions ranking
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"topic_name", "partition_no", "time_stamp", "value"})
+public class TopEntry {
+    private String topicName;
+    private Integer partitionNo;
+    private Date timeStamp;
+    private long value;
+
+    /**
+     * @param topicName the name of the topic
+     * @param partitionNo the partition number, or null if the topic is ranked
+     * @param timeStamp the timestamp of the run the value is taken from
+     * @param value the value the entry is ranked by
+     */
+    public TopEntry(String topicName, Integer partitionNo, Date timeStamp, long value) {
+        this.topicName = topicName;
+        this.partitionNo = partitionNo;
+        this.timeStamp = timeStamp;
+        this.value = value;
+    }
+
+    @JsonProperty(value = "topic_name")
+    public String getTopicName() {
+        return topicName;
+    }
+
+    @JsonProperty(value = "partition_no")
+    public Integer getPartitionNo() {
+        return partitionNo;
+    }
+
+    @JsonProperty(value = "time_stamp")
+    public String getStringTimeStamp() {
+        return RunsFileReader.formatTimeStamp(timeStamp);
+    }
+
+    @JsonIgnore
+    public Date getTimeStamp() {
+        return timeStamp;
+    }
+
+    @JsonProperty(value = "value")
+    public long getValue() {
+        return value;
+    }
+}
@@ -5,16 +5,14 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.LinkedHashSet;
 
 /**
- * Class for the topic entity with a list of runs within
+ * Class for the topic entity with a list of runs within.
+ * The topic is immutable, since its runs are shared by the snapshot and its filtered views
  *
  * Created by Alexey on 12/09/2015.
  */
 public class Topic implements Comparable<Topic>{
-    private String topicName;
-    private LinkedHashSet<Run> runs;
-
-    public Topic() {
-    }
+    private final String topicName;
+    private final LinkedHashSet<Run> runs;
 
     public Topic(String topicName, LinkedHashSet<Run> runs) {
         this.topicName = topicName;
@@ -31,14 +29,6 @@ public class Topic implements Comparable<Topic>{
         return runs;
     }
 
-    public void setTopicName(String topicName) {
-        this.topicName = topicName;
-    }
-
-    public void setRuns(LinkedHashSet<Run> runs) {
-        this.runs = runs;
-    }
-
     @Override
     public int compareTo(Topic o) {
         return topicName.compareTo(o.topicName);
@@ -0,0 +1,56 @@
+package org.megafon.task.entities;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Class for the estimated memory footprint of one topic
+ */
+@JsonPropertyOrder({"topic_name", "runs", "partition_layouts", "heap_bytes", "direct_bytes"})
+public class TopicFootprint {
+    private String topicName;
+    private int runs;
+    private int partitionLayouts;
+    private long heapBytes;
+    private long directBytes;
+
+    /**
+     * @param topicName the name of the topic
+     * @param runs the amount of the runs of the topic
+     * @param partitionLayouts the amount of the distinct partition layouts of the runs
+     * @param heapBytes the size of the topic with its runs in the heap, without the partition layouts and the timestamps
+     * @param directBytes the size of the offsets of the runs out of the heap, without the partition layouts
+     */
+    public TopicFootprint(String topicName, int runs, int partitionLayouts, long heapBytes, long directBytes) {
+        this.topicName = topicName;
+        this.runs = runs;
+        this.partitionLayouts = partitionLayouts;
+        this.heapBytes = heapBytes;
+        this.directBytes = directBytes;
+    }
+
+    @JsonProperty(value = "topic_name")
+    public String getTopicName() {
+        return topicName;
+    }
+
+    @JsonProperty(value = "runs")
+    public int getRuns() {
+        return runs;
+    }
+
+    @JsonProperty(value = "partition_layouts")
+    public int getPartitionLayouts() {
+        return partitionLayouts;
+    }
+
+    @JsonProperty(value = "heap_bytes")
+    public long getHeapBytes() {
+        return heapBytes;
+    }
+
+    @JsonProperty(value = "direct_bytes")
+    public long getDirectBytes() {
+        return directBytes;
+    }
+}
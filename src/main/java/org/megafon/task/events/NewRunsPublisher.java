@@ -0,0 +1,198 @@
+package org.megafon.task.events;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.megafon.task.entities.Run;
+import org.megafon.task.stats.RunStatisticsCalculator;
+import org.megafon.task.storage.NewRunsListener;
+import org.megafon.task.storage.TopicsStorage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Class for the fan-out of the new runs to the subscribers. The new runs are detected by the storage refresh,
+ * which is done by the requests and by the polling of this publisher while there are any subscribers:
+ * the polling is scheduled with the first subscriber and cancelled when the last one leaves.
+ * Every event is formatted once for all the subscribers with the same statistics types.
+ */
+@Component
+public class NewRunsPublisher implements NewRunsListener {
+    private static final Logger log = LoggerFactory.getLogger(NewRunsPublisher.class);
+    private static final String KEEP_ALIVE_EVENT = ": keep-alive\n\n";
+    private static final String SUBSCRIBED_EVENT = ": subscribed\n\n";
+
+    private final TopicsStorage topicsStorage;
+    private final long pollIntervalMs;
+    private final long keepAliveIntervalMs;
+    private final int queueCapacity;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final List<RunsSubscriber> subscribers = new CopyOnWriteArrayList<>();
+    private volatile String baseDir;
+    private ScheduledExecutorService poller;
+    private ScheduledFuture<?> polling;
+    private long lastKeepAlive = System.currentTimeMillis();
+
+    /**
+     * @param topicsStorage the storage, which detects the new runs
+     * @param pollIntervalMs the interval of the base directory polling while there are any subscribers
+     * @param keepAliveIntervalMs the interval of the keep-alive comments, which detect the closed connections
+     * @param queueCapacity the maximum amount of the events waiting to be sent to one subscriber
+     */
+    @Autowired
+    public NewRunsPublisher(TopicsStorage topicsStorage,
+                            @Value("${events.poll_interval_ms:1000}") long pollIntervalMs,
+                            @Value("${events.keep_alive_interval_ms:15000}") long keepAliveIntervalMs,
+                            @Value("${events.queue_capacity:100}") int queueCapacity) {
+        this.topicsStorage = topicsStorage;
+        this.pollIntervalMs = pollIntervalMs;
+        this.keepAliveIntervalMs = keepAliveIntervalMs;
+        this.queueCapacity = queueCapacity;
+        topicsStorage.addNewRunsListener(this);
+    }
+
+    /**
+     * @return the maximum amount of the events waiting to be sent to one subscriber
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Method for adding the subscriber. The base directory starts being polled with the first subscriber.
+     * @param baseDir the base directory to poll
+     * @param subscriber the subscriber itself
+     */
+    public synchronized void subscribe(String baseDir, RunsSubscriber subscriber) {
+        this.baseDir = baseDir;
+        subscribers.add(subscriber);
+        subscriber.offer(SUBSCRIBED_EVENT);
+
+        if (poller == null) {
+            poller = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "new-runs-poller");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        if (polling == null) {
+            polling = poller.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    poll();
+                }
+            }, pollIntervalMs, pollIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Method for removing the subscriber. The base directory stops being polled when the last subscriber leaves.
+     * @param subscriber the subscriber itself
+     */
+    public synchronized void unsubscribe(RunsSubscriber subscriber) {
+        subscribers.remove(subscriber);
+        if (subscribers.isEmpty() && polling != null) {
+            polling.cancel(false);
+            polling = null;
+        }
+    }
+
+    /**
+     * @return true if the base directory is polled for the new runs
+     */
+    public synchronized boolean isPolling() {
+        return polling != null;
+    }
+
+    /**
+     * @return the amount of the current subscribers
+     */
+    public int getSubscribersCount() {
+        return subscribers.size();
+    }
+
+    @Override
+    public boolean isListening() {
+        return !subscribers.isEmpty();
+    }
+
+    @Override
+    public void onNewRun(String topicName, Run run) {
+        //the events are formatted once for each set of the statistics types
+        Map<List<String>, String> events = new HashMap<>();
+
+        for (RunsSubscriber subscriber : subscribers) {
+            if (!subscriber.accepts(topicName)) {
+                continue;
+            }
+            String event = events.get(subscriber.getStatTypes());
+            if (event == null) {
+                event = formatEvent(topicName, run, subscriber.getStatTypes());
+                events.put(subscriber.getStatTypes(), event);
+            }
+            if (!subscriber.offer(event)) {
+                unsubscribe(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Method for the polling of the base directory, which makes the storage detect the new runs
+     */
+    private void poll() {
+        if (subscribers.isEmpty() || baseDir == null) {
+            return;
+        }
+
+        try {
+            topicsStorage.getTopics(baseDir);
+        } catch (Exception e) {
+            log.warn("Polling of " + baseDir + " for the new runs failed", e);
+        }
+
+        long now = System.currentTimeMillis();
+        if (now - lastKeepAlive >= keepAliveIntervalMs) {
+            lastKeepAlive = now;
+            for (RunsSubscriber subscriber : subscribers) {
+                if (!subscriber.offer(KEEP_ALIVE_EVENT)) {
+                    unsubscribe(subscriber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method for formatting the run as the server-sent event with the run statistics JSON as the data
+     */
+    private String formatEvent(String topicName, Run run, List<String> statTypes) {
+        try {
+            return "event: run\ndata: "
+                    + objectMapper.writeValueAsString(RunStatisticsCalculator.calculate(topicName, run, statTypes))
+                    + "\n\n";
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Run of the topic " + topicName + " could not be formatted", e);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        topicsStorage.removeNewRunsListener(this);
+        if (poller != null) {
+            poller.shutdownNow();
+            poller = null;
+            polling = null;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.megafon.task.events;
+
+import java.util.List;
+
+/**
+ * Interface for the subscribers of the new runs events
+ */
+public interface RunsSubscriber {
+
+    /**
+     * @param topicName the name of the topic of the new run
+     * @return true if the subscriber wants the events of this topic
+     */
+    boolean accepts(String topicName);
+
+    /**
+     * @return the statistics types which should be sent with the event, as they are described for the /get_stats request
+     */
+    List<String> getStatTypes();
+
+    /**
+     * Method for queueing the event to the subscriber. It shouldn't block, slow subscribers should drop the events instead.
+     * @param event the event already formatted for sending
+     * @return false if the subscriber is closed and should be removed
+     */
+    boolean offer(String event);
+}
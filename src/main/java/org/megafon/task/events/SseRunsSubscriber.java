@@ -0,0 +1,152 @@
+package org.megafon.task.events;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Class for the subscriber, which sends the events as the server-sent events stream of the asynchronous response.
+ * The events are written with the non-blocking output, so the slow client doesn't hold any thread:
+ * its events wait in the bounded queue and the oldest of them are dropped if the queue is full.
+ * The amount of the dropped events is sent to the client with the 'dropped' event.
+ */
+public class SseRunsSubscriber implements RunsSubscriber, WriteListener, AsyncListener {
+    private static final Logger log = LoggerFactory.getLogger(SseRunsSubscriber.class);
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream outputStream;
+    private final Set<String> topicNames;
+    private final List<String> statTypes;
+    private final int queueCapacity;
+
+    private final ArrayDeque<byte[]> queue;
+    private int droppedCount = 0;
+    private boolean flushNeeded = false;
+    private boolean writePossible = false;
+    private volatile boolean closed = false;
+
+    /**
+     * @param asyncContext the started asynchronous context of the request
+     * @param topicNames the names of the topics to send the events of, or null for all topics
+     * @param statTypes the statistics types which should be sent with the events
+     * @param queueCapacity the maximum amount of the events waiting to be sent
+     * @throws IOException if the output of the response could not be opened
+     */
+    public SseRunsSubscriber(AsyncContext asyncContext, Set<String> topicNames, List<String> statTypes,
+                             int queueCapacity) throws IOException {
+        this.asyncContext = asyncContext;
+        this.topicNames = topicNames;
+        this.statTypes = statTypes;
+        this.queueCapacity = queueCapacity;
+        this.queue = new ArrayDeque<>(queueCapacity);
+
+        asyncContext.addListener(this);
+        outputStream = asyncContext.getResponse().getOutputStream();
+        outputStream.setWriteListener(this);
+    }
+
+    @Override
+    public boolean accepts(String topicName) {
+        return topicNames == null || topicNames.contains(topicName);
+    }
+
+    @Override
+    public List<String> getStatTypes() {
+        return statTypes;
+    }
+
+    @Override
+    public synchronized boolean offer(String event) {
+        if (closed) {
+            return false;
+        }
+        if (queue.size() == queueCapacity) {
+            queue.poll();
+            droppedCount++;
+        }
+        queue.add(event.getBytes(StandardCharsets.UTF_8));
+        if (writePossible) {
+            write();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void onWritePossible() {
+        writePossible = true;
+        write();
+    }
+
+    /**
+     * Method for writing the queued events while the output is ready for it. If it's not ready,
+     * the container calls onWritePossible as soon as it is.
+     */
+    private void write() {
+        try {
+            while (!closed && outputStream.isReady()) {
+                if (droppedCount > 0) {
+                    outputStream.write(("event: dropped\ndata: {\"dropped_count\":" + droppedCount + "}\n\n").getBytes(StandardCharsets.UTF_8));
+                    droppedCount = 0;
+                    flushNeeded = true;
+                } else if (!queue.isEmpty()) {
+                    outputStream.write(queue.poll());
+                    flushNeeded = true;
+                } else if (flushNeeded) {
+                    outputStream.flush();
+                    flushNeeded = false;
+                } else {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.debug("New runs stream was closed by the client", e);
+            close();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        close();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        closed = true;
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            asyncContext.complete();
+        } catch (IllegalStateException e) {
+            //the request is already completed by the container
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.megafon.task.readers;
+
+import org.megafon.task.entities.OffsetTable;
+import org.megafon.task.entities.OffsetTableBuilder;
+import org.megafon.task.entities.PartitionLayouts;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.text.ParseException;
+import java.util.Arrays;
+
+/**
+ * Class for the incremental reading of the offsets.csv file, which could still be written.
+ * It remembers the byte position and the number of the line after the last parsed line,
+ * so every next read parses only the bytes appended since the previous one.
+ * The trailing line without the line separator could be half-written, so it's left pending until
+ * it's completed with the separator or the reader is asked to complete it.
+ *
+ * The file could be rewritten between the reads, so the tail remembers the identity of the file and the bytes
+ * at the beginning of the file and before the position. The reading is continued only if they are the same.
+ */
+public class OffsetsFileTail {
+    private static final int BUFFER_SIZE = 8192;
+    //the amount of the bytes compared at the beginning of the file and before the position
+    private static final int FINGERPRINT_SIZE = 64;
+
+    private final File offsetsFile;
+    private final OffsetTableBuilder offsets = new OffsetTableBuilder();
+    private long position = 0;
+    private int lineNo = 1;
+    private boolean pendingLine = false;
+    //true if the last line was completed without the line separator, so only the separator could follow it
+    private boolean completedLine = false;
+    private boolean failed = false;
+    private Object fileKey;
+    private byte[] head = new byte[0];
+    private byte[] last = new byte[0];
+
+    public OffsetsFileTail(File offsetsFile) {
+        this.offsetsFile = offsetsFile;
+    }
+
+    /**
+     * Method for reading the bytes appended to the file since the previous read
+     *
+     * @param completePendingLine true if the trailing line without the line separator should be parsed as complete,
+     *                            false if it should be left pending
+     * @throws IOException if there were problems with file reading, or the file was truncated
+     * @throws ParseException if there were any problems with the complete lines parsing
+     */
+    public void read(boolean completePendingLine) throws IOException, ParseException {
+        if (failed) {
+            throw new IllegalStateException("Previous reading of the file " + offsetsFile.getAbsolutePath() + " has failed");
+        }
+
+        try (FileChannel channel = FileChannel.open(offsetsFile.toPath(), StandardOpenOption.READ)) {
+            //the file could be still growing, so it's read only up to its current size
+            long size = channel.size();
+            if (size < position) {
+                throw new IOException("File " + offsetsFile.getAbsolutePath() + " was truncated while it was read");
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long readPosition = position;
+            boolean separatorExpected = completedLine;
+            while (readPosition < size) {
+                buffer.clear();
+                buffer.limit((int) Math.min(BUFFER_SIZE, size - readPosition));
+                int read = channel.read(buffer, readPosition);
+                if (read < 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    byte b = buffer.get(i);
+                    if (separatorExpected) {
+                        //the separator of the line completed by the previous read
+                        if (b == '\n') {
+                            position = readPosition + i + 1;
+                            separatorExpected = false;
+                            completedLine = false;
+                        }
+                        if (b == '\n' || b == '\r') {
+                            continue;
+                        }
+                        throw new IOException("File " + offsetsFile.getAbsolutePath() + " has grown the line completed before");
+                    }
+                    if (b == '\n') {
+                        parseLine(line);
+                        position = readPosition + i + 1;
+                    } else {
+                        line.write(b);
+                    }
+                }
+                readPosition += read;
+            }
+
+            pendingLine = line.size() > 0;
+            if (pendingLine && completePendingLine) {
+                parseLine(line);
+                position = readPosition;
+                pendingLine = false;
+                completedLine = true;
+            }
+            remember(channel);
+        } catch (IOException | ParseException | RuntimeException e) {
+            //the position could be left in the middle of the line, so the reading can't be continued
+            failed = true;
+            throw e;
+        }
+    }
+
+    /**
+     * @param offHeap true if the table should be stored out of the heap
+     * @param layouts the pool of the partition layouts, or null if the table should have its own layout
+     * @return the table with the offsets of all the lines parsed so far
+     */
+    public OffsetTable getOffsetTable(boolean offHeap, PartitionLayouts layouts) {
+        return offsets.build(offHeap, layouts);
+    }
+
+    /**
+     * @return the byte position after the last parsed line
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    /**
+     * @return true if the trailing line without the line separator was left pending by the last read
+     */
+    public boolean hasPendingLine() {
+        return pendingLine;
+    }
+
+    /**
+     * Method for checking if the file is the same one the tail has been read from, with only the bytes appended
+     * since then
+     * @param length the current length of the file
+     * @return true if the reading could be continued from the position, false if the file should be read from the beginning
+     */
+    public boolean isContinuedBy(long length) {
+        if (failed || length < position) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(offsetsFile.toPath(), StandardOpenOption.READ)) {
+            if (fileKey != null && !fileKey.equals(getFileKey())) {
+                return false;
+            }
+            if (!Arrays.equals(head, readBytes(channel, 0, head.length))
+                    || !Arrays.equals(last, readBytes(channel, position - last.length, last.length))) {
+                return false;
+            }
+            if (completedLine && length > position) {
+                byte next = readBytes(channel, position, 1)[0];
+                return next == '\n' || next == '\r';
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * method for remembering the identity of the file and the bytes to compare on the next read
+     */
+    private void remember(FileChannel channel) throws IOException {
+        fileKey = getFileKey();
+        head = readBytes(channel, 0, (int) Math.min(FINGERPRINT_SIZE, position));
+        int lastSize = (int) Math.min(FINGERPRINT_SIZE, position);
+        last = readBytes(channel, position - lastSize, lastSize);
+    }
+
+    /**
+     * method for getting the identity of the file, e.g. its inode, or null if the file system doesn't have one
+     */
+    private Object getFileKey() throws IOException {
+        return Files.readAttributes(offsetsFile.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * method for reading the bytes of the file at the position, the missing ones are left zero
+     */
+    private static byte[] readBytes(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            //the bytes are read until the buffer is full or the end of the file
+        }
+        return buffer.array();
+    }
+
+    private void parseLine(ByteArrayOutputStream line) throws ParseException {
+        String lineString = new String(line.toByteArray(), StandardCharsets.US_ASCII);
+        //the line separator could be the Windows one
+        if (lineString.endsWith("\r")) {
+            lineString = lineString.substring(0, lineString.length() - 1);
+        }
+        RunsFileReader.parseOffsetsLine(lineString, lineNo, offsetsFile, offsets);
+        lineNo++;
+        line.reset();
+    }
+}
@@ -1,8 +1,8 @@
 package org.megafon.task.readers;
 
-import org.megafon.task.entities.Offset;
-import org.megafon.task.entities.Run;
-import org.megafon.task.entities.Topic;
+import org.megafon.task.entities.OffsetTable;
+import org.megafon.task.entities.OffsetTableBuilder;
+import org.megafon.task.entities.PartitionLayouts;
 
 import javax.validation.constraints.NotNull;
 import java.io.*;
@@ -40,78 +40,113 @@ public class RunsFileReader {
     }
 
     /**
-     * Main method for getting the topics and all inside of them with the list of Topic entities
-     * @return set of topics
-     * @throws IOException if there were problems with file/directory reading
-     * @throws ParseException if there were any problems with offsets files parsing
+     * get the topic folders within the base directory, sorted by name
      */
-    public LinkedHashSet<Topic> readTopics() throws IOException, ParseException {
-        LinkedHashSet<Topic> topics = new LinkedHashSet<>();
-        Topic topic;
-        LinkedHashSet<Run> runs;
-        Run run;
-
-        for(File topicFolder : listSubFolders(baseDir)) {
-            topic = new Topic();
-            topic.setTopicName(topicFolder.getName());
-
-            File historyFolder = getSubDirectoryByName(topicFolder, HISTORY_DIR_NAME);
-
-            runs = new LinkedHashSet<>();
-            for (File timestampFolder : listSubFolders(historyFolder)) {
-                run = new Run();
-                try {
-                    run.setTimeStamp(dateFormat.parse(timestampFolder.getName()));
-                } catch (ParseException e) {
-                    throw new ParseException("Folder " + timestampFolder.getAbsolutePath() + " has unappropriated name format. Format should be next: " + dateFormat.toPattern(), e.getErrorOffset());
-                }
-                File offsetsFile = getSubFileByName(timestampFolder, OFFSETS_FILE_NAME);
+    @NotNull
+    public File[] listTopicFolders() {
+        return listSubFolders(baseDir);
+    }
 
-                List<Offset> offsets = readOffsetsFile(offsetsFile);
+    /**
+     * Get the history folder of the topic
+     *
+     * @param topicFolder the folder of the topic
+     * @return File object of the history folder
+     * @throws FileNotFoundException if there was no history folder
+     */
+    public File getHistoryFolder(File topicFolder) throws FileNotFoundException {
+        return getSubDirectoryByName(topicFolder, HISTORY_DIR_NAME);
+    }
 
-                run.setOffsets(offsets);
-                runs.add(run);
-            }
+    /**
+     * get the run folders within the history folder, sorted by name (and therefore by timestamp)
+     */
+    @NotNull
+    public File[] listRunFolders(File historyFolder) {
+        return listSubFolders(historyFolder);
+    }
+
+    /**
+     * Get the offsets file of the run
+     *
+     * @param timestampFolder the folder of the run
+     * @return File object of the offsets file
+     * @throws FileNotFoundException if there was no offsets file
+     */
+    public File getOffsetsFile(File timestampFolder) throws FileNotFoundException {
+        return getSubFileByName(timestampFolder, OFFSETS_FILE_NAME);
+    }
+
+    /**
+     * Method for getting the run timestamp out of the run folder name
+     *
+     * @param timestampFolder the folder of the run
+     * @return timestamp of the run
+     * @throws ParseException if the folder name doesn't match the date format
+     */
+    public Date readTimeStamp(File timestampFolder) throws ParseException {
+        try {
+            return parseTimeStamp(timestampFolder.getName());
+        } catch (ParseException e) {
+            throw new ParseException("Folder " + timestampFolder.getAbsolutePath() + " has unappropriated name format. Format should be next: " + dateFormat.toPattern(), e.getErrorOffset());
+        }
+    }
 
-            topic.setRuns(runs);
-            topics.add(topic);
+    /**
+     * Thread safe parsing with the unified date format
+     */
+    public static Date parseTimeStamp(String timeStamp) throws ParseException {
+        synchronized (dateFormat) {
+            return dateFormat.parse(timeStamp);
         }
+    }
 
-        return topics;
+    /**
+     * Thread safe formatting with the unified date format
+     */
+    public static String formatTimeStamp(Date timeStamp) {
+        synchronized (dateFormat) {
+            return dateFormat.format(timeStamp);
+        }
     }
 
     /**
-     * Method for reading the offsets.csv file
+     * Method for reading the offsets.csv file into the offset table, which shares its partition numbers
+     * with the other tables with the same ones
      *
      * @param offsetsFile the file itself
-     * @return the list of Offset entities
+     * @param offHeap true if the table should be stored out of the heap
+     * @param layouts the pool of the partition layouts, or null if the table should have its own layout
+     * @return the offset table
      * @throws IOException if there were problems with file/directory reading
      * @throws ParseException if there were any problems with offsets files parsing
      */
-    private List<Offset> readOffsetsFile(File offsetsFile) throws IOException, ParseException {
-        List<Offset> offsets = new ArrayList<>();
-
-        BufferedReader br = new BufferedReader(new FileReader(offsetsFile));
-
-        String currentLine;
-        String[] splitCurrentLine;
-        int lineNo = 1;
-
-        while ((currentLine = br.readLine()) != null) {
-            splitCurrentLine = currentLine.split(OFFSETS_DELIMITER);
-            if (splitCurrentLine.length == 2) {
-                try {
-                    offsets.add(new Offset(Integer.parseInt(splitCurrentLine[0]), Long.parseLong(splitCurrentLine[1])));
-                } catch (NumberFormatException e) {
-                    throw new ParseException("File " + offsetsFile.getAbsolutePath() + "has unappropriated number format at line " + lineNo, lineNo);
-                }
-            } else {
-                throw new ParseException("File " + offsetsFile.getAbsolutePath() + "has unappropriated format of line " + lineNo, lineNo);
+    public OffsetTable readOffsetTable(File offsetsFile, boolean offHeap, PartitionLayouts layouts) throws IOException, ParseException {
+        OffsetsFileTail tail = new OffsetsFileTail(offsetsFile);
+        tail.read(true);
+        return tail.getOffsetTable(offHeap, layouts);
+    }
+
+    /**
+     * Method for parsing one line of the offsets.csv file into the offset table
+     *
+     * @param line the line without the line separator
+     * @param lineNo the number of the line in the file, starting from 1
+     * @param offsetsFile the file the line is read from
+     * @param offsets the builder of the offset table the parsed offset is added to
+     * @throws ParseException if the line has unappropriated format
+     */
+    static void parseOffsetsLine(String line, int lineNo, File offsetsFile, OffsetTableBuilder offsets) throws ParseException {
+        String[] splitLine = line.split(OFFSETS_DELIMITER);
+        if (splitLine.length == 2) {
+            try {
+                offsets.add(Integer.parseInt(splitLine[0]), Long.parseLong(splitLine[1]));
+            } catch (NumberFormatException e) {
+                throw new ParseException("File " + offsetsFile.getAbsolutePath() + "has unappropriated number format at line " + lineNo, lineNo);
             }
-            lineNo++;
+        } else {
+            throw new ParseException("File " + offsetsFile.getAbsolutePath() + "has unappropriated format of line " + lineNo, lineNo);
         }
-
-        return offsets;
     }
 
     /**
@@ -161,16 +196,18 @@ public class RunsFileReader {
     }
 
     /**
-     * get the list of all folders within the specified one
+     * get the list of all folders within the specified one, sorted by name, as the listing order depends on the filesystem
      */
     @NotNull
     private File[] listSubFolders(File parentDir) {
-        return parentDir.listFiles(new FileFilter() {
+        File[] subFolders = parentDir.listFiles(new FileFilter() {
             @Override
             public boolean accept(File pathname) {
                 return pathname.isDirectory();
             }
         });
+        Arrays.sort(subFolders);
+        return subFolders;
     }
 
     /**
@@ -0,0 +1,78 @@
+package org.megafon.task.stats;
+
+import org.megafon.task.entities.OffsetTable;
+import org.megafon.task.entities.PartitionHistory;
+import org.megafon.task.entities.PartitionLayout;
+import org.megafon.task.entities.Run;
+import org.megafon.task.entities.Topic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class for reading the message counts of the partitions straight from the offset tables of the runs,
+ * so no copy of the counts is kept between the requests. The partitions are found by the binary search
+ * over the partition layouts, which are shared by the runs, and the repeated partitions of the table are summed.
+ */
+public class PartitionCounts {
+
+    /**
+     * Method for getting the message count history of the partition within the time range
+     * @param topic the topic with the runs ordered by their timestamps
+     * @param partitionNo the partition number
+     * @param fromTime the timestamp of the oldest run to include
+     * @param toTime the timestamp of the newest run to include
+     * @return the history, or null if the partition is in none of the runs of the topic
+     */
+    public static PartitionHistory history(Topic topic, int partitionNo, long fromTime, long toTime) {
+        boolean found = false;
+        List<Run> runs = new ArrayList<>();
+        long[] msgCounts = new long[topic.getRuns().size()];
+        for (Run run : topic.getRuns()) {
+            int position = run.getOffsetTable().getLayout().findPartition(partitionNo);
+            if (position < 0) {
+                continue;
+            }
+            found = true;
+            long time = run.getTimeStamp().getTime();
+            if (time >= fromTime && time <= toTime) {
+                msgCounts[runs.size()] = sum(run.getOffsetTable(), position);
+                runs.add(run);
+            }
+        }
+        return found ? new PartitionHistory(topic.getTopicName(), partitionNo, runs, msgCounts) : null;
+    }
+
+    /**
+     * @param offsets the offset table
+     * @param position the position of the first offset of the partition in the sorted order of the table layout
+     * @return the total message count of the partition, which could be repeated in the table
+     */
+    public static long sum(OffsetTable offsets, int position) {
+        PartitionLayout layout = offsets.getLayout();
+        int partitionNo = layout.getPartitionNo(layout.getSortedIndex(position));
+        long sum = 0L;
+        for (int i = position; i < layout.size(); i++) {
+            int index = layout.getSortedIndex(i);
+            if (layout.getPartitionNo(index) != partitionNo) {
+                break;
+            }
+            sum = sum + offsets.getMsgCount(index);
+        }
+        return sum;
+    }
+
+    /**
+     * @param layout the layout of the offset table
+     * @param position the position of the first offset of the partition in the sorted order of the layout
+     * @return the position of the first offset of the next partition, or the size of the layout if it's the last one
+     */
+    public static int next(PartitionLayout layout, int position) {
+        int partitionNo = layout.getPartitionNo(layout.getSortedIndex(position));
+        int next = position + 1;
+        while (next < layout.size() && layout.getPartitionNo(layout.getSortedIndex(next)) == partitionNo) {
+            next++;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,264 @@
+package org.megafon.task.stats;
+
+import org.megafon.task.entities.OffsetTable;
+import org.megafon.task.entities.Run;
+import org.megafon.task.entities.RunStatistics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class for the statistics calculation of the runs, shared by the requests which respond with the run statistics.
+ *
+ * The approximate statistics are calculated from the systematic sample of every tenth partition of the run,
+ * but of no less than the minimum sample size, so the same run always gets the same answer.
+ * The runs with no more partitions than the minimum sample size are calculated exactly.
+ * The bounds of the approximate values are the 95% confidence intervals; the minimum and the maximum
+ * can't be bounded by the sample, so they are always exact and scan all the partitions.
+ */
+public class RunStatisticsCalculator {
+    //the sample of the large runs is every SAMPLE_DIVISOR-th partition
+    private static final int SAMPLE_DIVISOR = 10;
+    private static final String STAT_TYPES_DELIM = ",";
+    private static final Pattern PERCENTILE_STAT_TYPE = Pattern.compile("p([1-9][0-9]?)");
+    private static final int MIN_SAMPLE_SIZE = 1000;
+    //the normal quantile of the 95% confidence interval
+    private static final double CONFIDENCE_Z = 1.96;
+
+    /**
+     * Method for splitting the comma separated statistics types
+     */
+    public static List<String> parseStatTypes(String statTypes) {
+        return Arrays.asList(statTypes.split(STAT_TYPES_DELIM));
+    }
+
+    /**
+     * Method for checking if the statistics could be calculated from the sample of the partitions
+     * @param statTypesArr the statistics types needed, as they are described for the /get_stats request
+     * @return false if the minimum or the maximum is needed, so all the partitions are scanned anyway
+     */
+    public static boolean isSampled(List<String> statTypesArr) {
+        return !statTypesArr.contains("min") && !statTypesArr.contains("minimum")
+                && !statTypesArr.contains("max") && !statTypesArr.contains("maximum");
+    }
+
+    /**
+     * Method for getting the amount of the partitions the approximate statistics are calculated from
+     * @param partitionsCount the amount of the partitions of the run
+     * @return the size of the sample, or the amount of the partitions if the run is calculated exactly
+     */
+    public static int getSampleSize(int partitionsCount) {
+        return partitionsCount > MIN_SAMPLE_SIZE ? Math.max(MIN_SAMPLE_SIZE, partitionsCount / SAMPLE_DIVISOR) : partitionsCount;
+    }
+
+    /**
+     * Method for calculating the statistics of the run
+     * @param topicName the name of the topic of the run
+     * @param run the run itself
+     * @param statTypesArr the statistics types needed, as they are described for the /get_stats request
+     * @return the run statistics with only the needed statistics set
+     */
+    public static RunStatistics calculate(String topicName, Run run, List<String> statTypesArr) {
+        return calculate(topicName, run, statTypesArr, false);
+    }
+
+    /**
+     * Method for calculating the exact or the approximate statistics of the run
+     * @param topicName the name of the topic of the run
+     * @param run the run itself
+     * @param statTypesArr the statistics types needed, as they are described for the /get_stats request
+     * @param approximate true if the total, the average and the percentiles should be estimated by the sample
+     *                    of the partitions, with their confidence bounds
+     * @return the run statistics with only the needed statistics set
+     */
+    public static RunStatistics calculate(String topicName, Run run, List<String> statTypesArr, boolean approximate) {
+        RunStatistics runStatistics = new RunStatistics(run, topicName);
+        OffsetTable offsets = run.getOffsetTable();
+
+        //here the stats are calculated straight from the offset table
+        if (approximate && offsets.size() > MIN_SAMPLE_SIZE) {
+            estimate(runStatistics, offsets, statTypesArr);
+        } else {
+            calculateExact(runStatistics, offsets, statTypesArr);
+            if (approximate) {
+                setExactBounds(runStatistics, offsets.size());
+            }
+        }
+
+        if (statTypesArr.contains("min") || statTypesArr.contains("minimum")) {
+            if (offsets.size() > 0) {
+                long min = Long.MAX_VALUE;
+                for (int i = 0; i < offsets.size(); i++) {
+                    if (offsets.getMsgCount(i) < min) {
+                        min = offsets.getMsgCount(i);
+                    }
+                }
+                runStatistics.setMinMsgCount(min);
+            }
+        }
+        if (statTypesArr.contains("max") || statTypesArr.contains("maximum")) {
+            if (offsets.size() > 0) {
+                runStatistics.setMaxMsgCount(max(offsets));
+            }
+        }
+
+        return runStatistics;
+    }
+
+    /**
+     * method for calculating the total, the average and the percentiles out of all the partitions
+     */
+    private static void calculateExact(RunStatistics runStatistics, OffsetTable offsets, List<String> statTypesArr) {
+        if (statTypesArr.contains("total") || statTypesArr.contains("sum") || statTypesArr.contains("ttl")) {
+            runStatistics.setTotalMsgCount(total(offsets));
+        }
+        if (statTypesArr.contains("avg") || statTypesArr.contains("average")) {
+            if (offsets.size() > 0) {
+                double avg = 0d;
+                for (int i = 0; i < offsets.size(); i++) {
+                    avg = avg + offsets.getMsgCount(i);
+                }
+                avg = avg / offsets.size();
+                runStatistics.setAvgMsgCount(avg);
+            }
+        }
+
+        List<Integer> percentiles = parsePercentiles(statTypesArr);
+        if (!percentiles.isEmpty() && offsets.size() > 0) {
+            long[] values = new long[offsets.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = offsets.getMsgCount(i);
+            }
+            Arrays.sort(values);
+            Map<String, Long> percentileValues = new LinkedHashMap<>();
+            for (int percentile : percentiles) {
+                percentileValues.put("p" + percentile, values[getRank(percentile, values.length)]);
+            }
+            runStatistics.setPercentiles(percentileValues);
+        }
+    }
+
+    /**
+     * method for setting the bounds of the exact statistics, which are the values themselves
+     */
+    private static void setExactBounds(RunStatistics runStatistics, int partitionsCount) {
+        if (runStatistics.getTotalMsgCount() != null) {
+            long total = runStatistics.getTotalMsgCount();
+            runStatistics.setTotalMsgCountBounds(new long[]{total, total});
+        }
+        if (runStatistics.getAvgMsgCount() != null) {
+            double avg = runStatistics.getAvgMsgCount();
+            runStatistics.setAvgMsgCountBounds(new double[]{avg, avg});
+        }
+        if (runStatistics.getPercentiles() != null) {
+            Map<String, long[]> percentilesBounds = new LinkedHashMap<>();
+            for (Map.Entry<String, Long> percentile : runStatistics.getPercentiles().entrySet()) {
+                percentilesBounds.put(percentile.getKey(), new long[]{percentile.getValue(), percentile.getValue()});
+            }
+            runStatistics.setPercentilesBounds(percentilesBounds);
+        }
+        runStatistics.setSampledPartitions(partitionsCount);
+    }
+
+    /**
+     * method for estimating the total, the average and the percentiles out of the systematic sample of the partitions.
+     * The sample is treated as the simple random one, with the finite population correction of the variance
+     */
+    private static void estimate(RunStatistics runStatistics, OffsetTable offsets, List<String> statTypesArr) {
+        int size = offsets.size();
+        int sampleSize = getSampleSize(size);
+        double stride = (double) size / sampleSize;
+
+        long[] sample = new long[sampleSize];
+        double mean = 0d;
+        double squaresSum = 0d;
+        for (int i = 0; i < sampleSize; i++) {
+            sample[i] = offsets.getMsgCount((int) ((i + 0.5) * stride));
+            //the Welford's method keeps the variance accurate for the large counts
+            double delta = sample[i] - mean;
+            mean += delta / (i + 1);
+            squaresSum += delta * (sample[i] - mean);
+        }
+        double variance = squaresSum / (sampleSize - 1);
+        double meanError = CONFIDENCE_Z * Math.sqrt(variance / sampleSize * (1d - (double) sampleSize / size));
+
+        if (statTypesArr.contains("total") || statTypesArr.contains("sum") || statTypesArr.contains("ttl")) {
+            runStatistics.setTotalMsgCount(Math.round(mean * size));
+            runStatistics.setTotalMsgCountBounds(new long[]{Math.round((mean - meanError) * size),
+                    Math.round((mean + meanError) * size)});
+        }
+        if (statTypesArr.contains("avg") || statTypesArr.contains("average")) {
+            runStatistics.setAvgMsgCount(mean);
+            runStatistics.setAvgMsgCountBounds(new double[]{mean - meanError, mean + meanError});
+        }
+
+        List<Integer> percentiles = parsePercentiles(statTypesArr);
+        if (!percentiles.isEmpty()) {
+            Arrays.sort(sample);
+            Map<String, Long> percentileValues = new LinkedHashMap<>();
+            Map<String, long[]> percentilesBounds = new LinkedHashMap<>();
+            for (int percentile : percentiles) {
+                //the rank of the percentile in the sample is binomial, so its bounds are the normal approximation ones
+                double p = percentile / 100d;
+                double rankError = CONFIDENCE_Z * Math.sqrt(sampleSize * p * (1d - p));
+                int lowerRank = Math.max(0, (int) Math.floor(sampleSize * p - rankError) - 1);
+                int upperRank = Math.min(sampleSize - 1, (int) Math.ceil(sampleSize * p + rankError) - 1);
+                percentileValues.put("p" + percentile, sample[getRank(percentile, sampleSize)]);
+                percentilesBounds.put("p" + percentile, new long[]{sample[lowerRank], sample[upperRank]});
+            }
+            runStatistics.setPercentiles(percentileValues);
+            runStatistics.setPercentilesBounds(percentilesBounds);
+        }
+        runStatistics.setSampledPartitions(sampleSize);
+    }
+
+    /**
+     * method for getting the percentiles out of the statistics types like 'p50' or 'p99', in the order of the request
+     */
+    private static List<Integer> parsePercentiles(List<String> statTypesArr) {
+        List<Integer> percentiles = new ArrayList<>();
+        for (String statType : statTypesArr) {
+            Matcher matcher = PERCENTILE_STAT_TYPE.matcher(statType);
+            if (matcher.matches() && !percentiles.contains(Integer.parseInt(matcher.group(1)))) {
+                percentiles.add(Integer.parseInt(matcher.group(1)));
+            }
+        }
+        return percentiles;
+    }
+
+    /**
+     * method for getting the index of the percentile in the sorted values by the nearest rank method
+     */
+    private static int getRank(int percentile, int size) {
+        return Math.max(0, (int) Math.ceil(percentile / 100d * size) - 1);
+    }
+
+    /**
+     * @return the total amount of messages in all the offsets of the table
+     */
+    public static long total(OffsetTable offsets) {
+        long total = 0L;
+        for (int i = 0; i < offsets.size(); i++) {
+            total = total + offsets.getMsgCount(i);
+        }
+        return total;
+    }
+
+    /**
+     * @return the maximum amount of messages among the offsets of the table, which should not be empty
+     */
+    public static long max(OffsetTable offsets) {
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < offsets.size(); i++) {
+            if (offsets.getMsgCount(i) > max) {
+                max = offsets.getMsgCount(i);
+            }
+        }
+        return max;
+    }
+}
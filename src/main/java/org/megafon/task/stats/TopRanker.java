@@ -0,0 +1,201 @@
+package org.megafon.task.stats;
+
+import org.megafon.task.entities.OffsetTable;
+import org.megafon.task.entities.PartitionLayout;
+import org.megafon.task.entities.Run;
+import org.megafon.task.entities.TopEntry;
+import org.megafon.task.entities.Topic;
+
+import java.util.*;
+
+/**
+ * Class for selecting the top K topics or partitions by the value of the runs.
+ * Only K best entries are kept in the bounded heap while the candidates are offered,
+ * so the selection costs O(n log K) and its memory doesn't depend on the amount of the candidates.
+ *
+ * The values are:
+ * 'total' - the total amount of messages of the topic run, or the amount of messages of the partition in the run;
+ * 'max' - the maximum amount of messages among the partitions of the topic run, or the same as 'total' for the partition;
+ * 'growth' - the difference of the 'total' value with the previous run of the topic, or with the previous run
+ * the partition was in. The partitions of the last runs are compared with the previous run of the topic only,
+ * so only its table is kept. The first runs have no growth and are not ranked by it.
+ */
+public class TopRanker {
+    public static final String BY_TOTAL = "total";
+    public static final String BY_MAX = "max";
+    public static final String BY_GROWTH = "growth";
+
+    //the order of the result: the greater values first, then by the topic name, partition number and timestamp
+    private static final Comparator<TopEntry> RESULT_ORDER = new Comparator<TopEntry>() {
+        @Override
+        public int compare(TopEntry o1, TopEntry o2) {
+            int result = Long.compare(o2.getValue(), o1.getValue());
+            if (result == 0) {
+                result = o1.getTopicName().compareTo(o2.getTopicName());
+            }
+            if (result == 0 && o1.getPartitionNo() != null && o2.getPartitionNo() != null) {
+                result = o1.getPartitionNo().compareTo(o2.getPartitionNo());
+            }
+            if (result == 0) {
+                result = o1.getTimeStamp().compareTo(o2.getTimeStamp());
+            }
+            return result;
+        }
+    };
+
+    private final String by;
+    private final int k;
+    //the worst of the kept entries is at the head of the heap
+    private final PriorityQueue<TopEntry> heap;
+
+    /**
+     * @param by the value to rank by: 'total', 'max' or 'growth'
+     * @param k the amount of the entries to select, should be positive
+     */
+    public TopRanker(String by, int k) {
+        if (!isKnownValue(by)) {
+            throw new IllegalArgumentException("Unknown ranking value '" + by + "'. Should be '" + BY_TOTAL + "', '" + BY_MAX + "' or '" + BY_GROWTH + "'");
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("Amount of the entries should be positive");
+        }
+        this.by = by;
+        this.k = k;
+        this.heap = new PriorityQueue<>(Math.min(k, 1024), Collections.reverseOrder(RESULT_ORDER));
+    }
+
+    /**
+     * @return true if the topics or partitions could be ranked by this value
+     */
+    public static boolean isKnownValue(String by) {
+        return BY_TOTAL.equals(by) || BY_MAX.equals(by) || BY_GROWTH.equals(by);
+    }
+
+    /**
+     * Method for offering the runs of the topics to the ranking
+     * @param topics the topics
+     * @param filter 'last' for the last runs, 'first' for the first runs, or null for all runs
+     */
+    public void rankTopics(Collection<Topic> topics, String filter) {
+        for (Topic topic : topics) {
+            //the runs are ordered by their timestamps
+            Run previousRun = null;
+            Run lastRun = null;
+            for (Run run : topic.getRuns()) {
+                if ("first".equals(filter)) {
+                    offerRun(topic.getTopicName(), run, null);
+                    break;
+                } else if (filter == null) {
+                    offerRun(topic.getTopicName(), run, lastRun);
+                }
+                previousRun = lastRun;
+                lastRun = run;
+            }
+            if ("last".equals(filter) && lastRun != null) {
+                offerRun(topic.getTopicName(), lastRun, previousRun);
+            }
+        }
+    }
+
+    /**
+     * Method for offering the partitions of the topics to the ranking. The message counts of the partitions
+     * are read straight from the offset tables, the previous counts of all the runs are kept only while
+     * the topic is ranked, and the last runs keep only the previous run of the topic.
+     * @param topics the topics
+     * @param filter 'last' for the partitions in the last runs, 'first' for the first runs, or null for all runs
+     */
+    public void rankPartitions(Collection<Topic> topics, String filter) {
+        for (Topic topic : topics) {
+            if (topic.getRuns().isEmpty()) {
+                continue;
+            }
+            if ("first".equals(filter)) {
+                offerPartitions(topic.getTopicName(), Collections.min(topic.getRuns()), null, null);
+            } else if ("last".equals(filter)) {
+                //the runs are ordered by their timestamps
+                Run previousRun = null;
+                Run lastRun = null;
+                for (Run run : topic.getRuns()) {
+                    previousRun = lastRun;
+                    lastRun = run;
+                }
+                offerPartitions(topic.getTopicName(), lastRun, previousRun, null);
+            } else {
+                Map<Integer, Long> previousCounts = new HashMap<>();
+                for (Run run : topic.getRuns()) {
+                    offerPartitions(topic.getTopicName(), run, null, previousCounts);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the selected entries, the best first
+     */
+    public List<TopEntry> getTop() {
+        List<TopEntry> top = new ArrayList<>(heap);
+        Collections.sort(top, RESULT_ORDER);
+        return top;
+    }
+
+    private void offerRun(String topicName, Run run, Run previousRun) {
+        OffsetTable offsets = run.getOffsetTable();
+        if (BY_TOTAL.equals(by)) {
+            offer(topicName, null, run.getTimeStamp(), RunStatisticsCalculator.total(offsets));
+        } else if (BY_MAX.equals(by)) {
+            if (offsets.size() > 0) {
+                offer(topicName, null, run.getTimeStamp(), RunStatisticsCalculator.max(offsets));
+            }
+        } else if (previousRun != null) {
+            offer(topicName, null, run.getTimeStamp(),
+                    RunStatisticsCalculator.total(offsets) - RunStatisticsCalculator.total(previousRun.getOffsetTable()));
+        }
+    }
+
+    /**
+     * method for offering the partitions of the run. The previous counts for the growth are searched
+     * in the previous run, or are taken from the counts of the already offered runs
+     */
+    private void offerPartitions(String topicName, Run run, Run previousRun, Map<Integer, Long> previousCounts) {
+        OffsetTable offsets = run.getOffsetTable();
+        PartitionLayout layout = offsets.getLayout();
+        for (int position = 0; position < layout.size(); position = PartitionCounts.next(layout, position)) {
+            int partitionNo = layout.getPartitionNo(layout.getSortedIndex(position));
+            long msgCount = PartitionCounts.sum(offsets, position);
+            if (!BY_GROWTH.equals(by)) {
+                offer(topicName, partitionNo, run.getTimeStamp(), msgCount);
+                continue;
+            }
+
+            Long previousCount = null;
+            if (previousCounts != null) {
+                previousCount = previousCounts.put(partitionNo, msgCount);
+            } else if (previousRun != null) {
+                OffsetTable previousOffsets = previousRun.getOffsetTable();
+                int previousPosition = previousOffsets.getLayout().findPartition(partitionNo);
+                if (previousPosition >= 0) {
+                    previousCount = PartitionCounts.sum(previousOffsets, previousPosition);
+                }
+            }
+            if (previousCount != null) {
+                offer(topicName, partitionNo, run.getTimeStamp(), msgCount - previousCount);
+            }
+        }
+    }
+
+    private void offer(String topicName, Integer partitionNo, Date timeStamp, long value) {
+        if (heap.size() < k) {
+            heap.add(new TopEntry(topicName, partitionNo, timeStamp, value));
+            return;
+        }
+        //most of the candidates are rejected here without the entry creation
+        if (value < heap.peek().getValue()) {
+            return;
+        }
+        TopEntry entry = new TopEntry(topicName, partitionNo, timeStamp, value);
+        if (RESULT_ORDER.compare(entry, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+}
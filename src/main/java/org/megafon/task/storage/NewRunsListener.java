@@ -0,0 +1,23 @@
+package org.megafon.task.storage;
+
+import org.megafon.task.entities.Run;
+
+/**
+ * Interface for the listeners of the runs which have appeared in the base directory since it was loaded
+ */
+public interface NewRunsListener {
+
+    /**
+     * Called after the storage refresh for every new run, when the refreshed topics are already visible.
+     * It is called out of the storage lock on one of the refreshing threads, and the new runs are waiting for it,
+     * so it should return quickly.
+     * @param topicName the name of the topic of the run
+     * @param run the new run
+     */
+    void onNewRun(String topicName, Run run);
+
+    /**
+     * @return true if the listener has anyone to report the new runs to, otherwise the new runs are not collected for it
+     */
+    boolean isListening();
+}
@@ -0,0 +1,160 @@
+package org.megafon.task.storage;
+
+import org.megafon.task.entities.*;
+import org.megafon.task.stats.RunStatisticsCalculator;
+
+import java.util.*;
+
+/**
+ * Class for the consistent view of the base directory at the moment of one storage refresh.
+ * It's never changed after it was made, so the requests, which have to agree with each other, should use the same snapshot.
+ * The topics with only their first or last runs are made once for the snapshot and are shared by the requests.
+ */
+public class TopicsSnapshot {
+    private final long version;
+    private final LinkedHashSet<Topic> topics;
+    private final int runsCount;
+    private final long offsetsCount;
+    private final long sampledOffsetsCount;
+    private volatile LinkedHashSet<Topic> firstRunsTopics;
+    private volatile LinkedHashSet<Topic> lastRunsTopics;
+
+    TopicsSnapshot(long version, LinkedHashSet<Topic> topics) {
+        this.version = version;
+        this.topics = topics;
+
+        int runs = 0;
+        long offsets = 0;
+        long sampledOffsets = 0;
+        for (Topic topic : topics) {
+            for (Run run : topic.getRuns()) {
+                runs++;
+                offsets += run.getOffsetTable().size();
+                sampledOffsets += RunStatisticsCalculator.getSampleSize(run.getOffsetTable().size());
+            }
+        }
+        this.runsCount = runs;
+        this.offsetsCount = offsets;
+        this.sampledOffsetsCount = sampledOffsets;
+    }
+
+    /**
+     * @return the version of the snapshot, which is increased every time the base directory contents change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the topics, which should not be modified
+     */
+    public LinkedHashSet<Topic> getTopics() {
+        return topics;
+    }
+
+    /**
+     * @return the amount of the runs of all the topics
+     */
+    public int getRunsCount() {
+        return runsCount;
+    }
+
+    /**
+     * @return the amount of the offsets in the runs of all the topics
+     */
+    public long getOffsetsCount() {
+        return offsetsCount;
+    }
+
+    /**
+     * @return the amount of the offsets in the samples of the approximate statistics of all the runs
+     */
+    public long getSampledOffsetsCount() {
+        return sampledOffsetsCount;
+    }
+
+    /**
+     * Method for getting the topics with their runs filtered by the timestamp. The filtered topics are made
+     * on the first request and are shared by the next ones, with the same runs as the snapshot topics have.
+     * @param filter 'last' for the last runs, 'first' for the first runs, or null for all runs
+     * @return the filtered topics, which should not be modified
+     */
+    public LinkedHashSet<Topic> getFilteredTopics(String filter) {
+        if (filter == null) {
+            return topics;
+        } else if ("last".equals(filter)) {
+            if (lastRunsTopics == null) {
+                lastRunsTopics = filterTopics(true);
+            }
+            return lastRunsTopics;
+        } else if ("first".equals(filter)) {
+            if (firstRunsTopics == null) {
+                firstRunsTopics = filterTopics(false);
+            }
+            return firstRunsTopics;
+        }
+        throw new IllegalArgumentException("Unknown filter '" + filter + "'");
+    }
+
+    /**
+     * Method for estimating the memory retained by the topics of the snapshot
+     * @return the footprint of every topic and the totals
+     */
+    public MemoryFootprint getFootprint() {
+        List<TopicFootprint> topicFootprints = new ArrayList<>(topics.size());
+        Map<PartitionLayout, Boolean> allLayouts = new IdentityHashMap<>();
+        Map<Object, Boolean> timeStamps = new IdentityHashMap<>();
+        for (Topic topic : topics) {
+            Map<PartitionLayout, Boolean> topicLayouts = new IdentityHashMap<>();
+            long heapBytes = MemorySizes.object(2 * MemorySizes.REFERENCE) + MemorySizes.string(topic.getTopicName())
+                    + MemorySizes.LINKED_SET;
+            long directBytes = 0L;
+            for (Run run : topic.getRuns()) {
+                OffsetTable offsets = run.getOffsetTable();
+                //the date and the formatted timestamp are shared by the runs of the same time, so they are counted once
+                heapBytes += MemorySizes.LINKED_SET_ENTRY + MemorySizes.object(3 * MemorySizes.REFERENCE) + offsets.getHeapSize();
+                timeStamps.put(run.getTimeStamp(), Boolean.TRUE);
+                timeStamps.put(run.getStringTimeStamp(), Boolean.TRUE);
+                directBytes += offsets.getDirectSize();
+                topicLayouts.put(offsets.getLayout(), Boolean.TRUE);
+            }
+            allLayouts.putAll(topicLayouts);
+            topicFootprints.add(new TopicFootprint(topic.getTopicName(), topic.getRuns().size(), topicLayouts.size(),
+                    heapBytes, directBytes));
+        }
+
+        long layoutsHeapBytes = 0L;
+        long layoutsDirectBytes = 0L;
+        for (PartitionLayout layout : allLayouts.keySet()) {
+            layoutsHeapBytes += layout.getHeapSize();
+            layoutsDirectBytes += layout.getDirectSize();
+        }
+        int timeStampsCount = 0;
+        long timeStampsHeapBytes = 0L;
+        for (Object timeStamp : timeStamps.keySet()) {
+            if (timeStamp instanceof Date) {
+                timeStampsCount++;
+                timeStampsHeapBytes += MemorySizes.object(Long.BYTES + MemorySizes.REFERENCE);
+            } else {
+                timeStampsHeapBytes += MemorySizes.string((String) timeStamp);
+            }
+        }
+        return new MemoryFootprint(topicFootprints, allLayouts.size(), layoutsHeapBytes, layoutsDirectBytes,
+                timeStampsCount, timeStampsHeapBytes);
+    }
+
+    /**
+     * method for making the topics with only their last or first runs
+     */
+    private LinkedHashSet<Topic> filterTopics(boolean last) {
+        LinkedHashSet<Topic> filteredTopics = new LinkedHashSet<>(topics.size() * 2);
+        for (Topic topic : topics) {
+            LinkedHashSet<Run> filteredRuns = new LinkedHashSet<>(2);
+            if (!topic.getRuns().isEmpty()) {
+                filteredRuns.add(last ? Collections.max(topic.getRuns()) : Collections.min(topic.getRuns()));
+            }
+            filteredTopics.add(new Topic(topic.getTopicName(), filteredRuns));
+        }
+        return filteredTopics;
+    }
+}
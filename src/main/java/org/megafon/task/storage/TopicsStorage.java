@@ -0,0 +1,603 @@
+package org.megafon.task.storage;
+
+import org.megafon.task.entities.OffsetTable;
+import org.megafon.task.entities.PartitionLayouts;
+import org.megafon.task.entities.Run;
+import org.megafon.task.entities.Topic;
+import org.megafon.task.readers.OffsetsFileTail;
+import org.megafon.task.readers.RunsFileReader;
+import org.megafon.task.tracing.Phase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.validation.constraints.NotNull;
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class for keeping the topics read from the base directory in memory.
+ * Every access refreshes the loaded topics with the base directory contents, but only the offsets files
+ * which are new or were changed since the previous access are read again, the others are reused.
+ * The offsets files are read in parallel with as many threads as there are cores.
+ * Depending on the storage mode the offsets of the runs are kept in the heap or out of it in the direct buffers.
+ * The offsets file of the newest run of every topic could be still written, so it's read incrementally:
+ * only the appended lines are parsed on the next access, and the trailing line without the line separator
+ * is left pending until it's completed or the file isn't modified for the settle interval.
+ * The runs with the same partitions share one partition layout, and the topic names are kept the same
+ * between the refreshes, so the unchanged topics don't get the new copies of them.
+ */
+@Component
+public class TopicsStorage {
+    private static final Logger log = LoggerFactory.getLogger(TopicsStorage.class);
+    private static final String HEAP_MODE = "heap";
+    private static final String OFF_HEAP_MODE = "off_heap";
+
+    private final boolean offHeap;
+    private final long tailSettleMs;
+
+    private final int parallelism = Runtime.getRuntime().availableProcessors();
+    private ExecutorService loaderPool;
+
+    private String loadedBaseDir;
+    //the last snapshot is read without the refresh by the admission control
+    private volatile TopicsSnapshot snapshot;
+    private long snapshotVersion = 0;
+    //loaded runs by the absolute path of their offsets file
+    private Map<String, LoadedRun> loadedRuns = new HashMap<>();
+    private final PartitionLayouts layouts = new PartitionLayouts();
+    //the canonical topic names, which are shared by the topics and the new runs notifications
+    private Map<String, String> topicNames = new HashMap<>();
+    //the canonical timestamps by their time, which are shared by the runs of all the topics
+    private Map<Long, TimeStamp> timeStamps = new HashMap<>();
+
+    private final List<NewRunsListener> newRunsListeners = new CopyOnWriteArrayList<>();
+    //the new runs are queued by the refresh in their order and sent to the listeners out of the storage lock
+    private final Queue<NewRun> newRuns = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean notifying = new AtomicBoolean(false);
+
+    private volatile boolean ready = false;
+    private volatile String loadError;
+    private volatile long refreshedAt = 0L;
+    private final AtomicInteger topicsTotal = new AtomicInteger();
+    private final AtomicInteger topicsLoaded = new AtomicInteger();
+    private final AtomicInteger runsTotal = new AtomicInteger();
+    private final AtomicInteger runsLoaded = new AtomicInteger();
+
+    /**
+     * Constructor, which sets the storage mode
+     * @param storageMode 'heap' for keeping the offsets in the heap, 'off_heap' for keeping them in the direct buffers
+     * @param tailSettleMs the time since the last modification of the newest run offsets file, after which
+     *                     its trailing line without the line separator is considered complete
+     */
+    @Autowired
+    public TopicsStorage(@Value("${storage.mode:" + HEAP_MODE + "}") String storageMode,
+                         @Value("${storage.tail_settle_ms:5000}") long tailSettleMs) {
+        this.tailSettleMs = tailSettleMs;
+        if (HEAP_MODE.equalsIgnoreCase(storageMode)) {
+            offHeap = false;
+        } else if (OFF_HEAP_MODE.equalsIgnoreCase(storageMode)) {
+            offHeap = true;
+        } else {
+            throw new IllegalArgumentException("Unknown storage mode '" + storageMode + "'. Should be '" + HEAP_MODE + "' or '" + OFF_HEAP_MODE + "'");
+        }
+    }
+
+    /**
+     * Main method for getting the topics, which are refreshed with the base directory contents first
+     * @param baseDir string for the path of the base directory
+     * @return set of topics. It is shared between the callers, so it should not be modified
+     * @throws IOException if there were problems with file/directory reading
+     * @throws ParseException if there were any problems with offsets files parsing
+     */
+    public LinkedHashSet<Topic> getTopics(@NotNull String baseDir) throws IOException, ParseException {
+        return getSnapshot(baseDir).getTopics();
+    }
+
+    /**
+     * Method for getting the consistent view of the base directory, which is refreshed with its contents first
+     * @param baseDir string for the path of the base directory
+     * @return the snapshot with the topics
+     * @throws IOException if there were problems with file/directory reading
+     * @throws ParseException if there were any problems with offsets files parsing
+     */
+    public TopicsSnapshot getSnapshot(@NotNull String baseDir) throws IOException, ParseException {
+        TopicsSnapshot loadedSnapshot;
+        synchronized (this) {
+            load(baseDir, false);
+            loadedSnapshot = snapshot;
+        }
+        notifyNewRuns();
+        return loadedSnapshot;
+    }
+
+    /**
+     * Method for getting the snapshot made by the last refresh, without refreshing it.
+     * It's cheap and doesn't wait for the refresh in progress, so it suits the estimations, or the lookups
+     * which check how long ago the snapshot has been refreshed.
+     * @return the last snapshot, or null if the base directory has not been loaded yet
+     */
+    public TopicsSnapshot getLoadedSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return the time the last successful refresh has started at, whether it has changed the snapshot or not,
+     *         or 0 if there was no refresh yet. The loaded snapshot has the base directory contents of that time
+     */
+    public long getRefreshedAt() {
+        return refreshedAt;
+    }
+
+    /**
+     * Method for the initial load of the base directory. The storage is reported as ready after it completes.
+     * @param baseDir string for the path of the base directory
+     * @throws IOException if there were problems with file/directory reading
+     * @throws ParseException if there were any problems with offsets files parsing
+     */
+    public void warmUp(@NotNull String baseDir) throws IOException, ParseException {
+        synchronized (this) {
+            long start = System.currentTimeMillis();
+            load(baseDir, true);
+            log.info("Warm-up of {} completed in {} ms: {} topics, {} runs", baseDir, System.currentTimeMillis() - start,
+                    topicsLoaded.get(), runsLoaded.get());
+        }
+        notifyNewRuns();
+    }
+
+    /**
+     * Method for adding the listener of the runs which appear after the base directory was loaded
+     */
+    public void addNewRunsListener(NewRunsListener listener) {
+        newRunsListeners.add(listener);
+    }
+
+    public void removeNewRunsListener(NewRunsListener listener) {
+        newRunsListeners.remove(listener);
+    }
+
+    /**
+     * @return true if the initial load of the base directory has completed
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * @return the message of the error of the last failed load before the storage became ready, or null if there was none
+     */
+    public String getLoadError() {
+        return loadError;
+    }
+
+    public int getTopicsTotal() {
+        return topicsTotal.get();
+    }
+
+    public int getTopicsLoaded() {
+        return topicsLoaded.get();
+    }
+
+    public int getRunsTotal() {
+        return runsTotal.get();
+    }
+
+    public int getRunsLoaded() {
+        return runsLoaded.get();
+    }
+
+    /**
+     * Method for refreshing the snapshot with the readiness report. The storage becomes ready after any successful load,
+     * so it recovers from the failed warm-up as soon as the base directory is fixed.
+     */
+    private void load(String baseDir, boolean logPhases) throws IOException, ParseException {
+        long start = System.currentTimeMillis();
+        try {
+            refresh(baseDir, logPhases);
+        } catch (IOException | ParseException | RuntimeException e) {
+            if (!ready) {
+                loadError = e.getMessage();
+            }
+            throw e;
+        }
+        loadError = null;
+        ready = true;
+        refreshedAt = start;
+    }
+
+    /**
+     * Method for reading the base directory into the snapshot. It consists of three phases:
+     * discovery of the folders, parallel parsing of the new or changed offsets files and assembling of the topics.
+     */
+    private void refresh(String baseDir, boolean logPhases) throws IOException, ParseException {
+        RunsFileReader reader = new RunsFileReader(baseDir);
+        if (!baseDir.equals(loadedBaseDir)) {
+            loadedRuns = new HashMap<>();
+            topicNames = new HashMap<>();
+            timeStamps = new HashMap<>();
+            snapshot = null;
+        }
+
+        long discoveryStart = System.currentTimeMillis();
+        Phase listingPhase = Phase.start(Phase.LISTING);
+
+        //discovery phase: the folders are listed and the runs which should be read are found
+        List<DiscoveredTopic> discoveredTopics = new ArrayList<>();
+        List<DiscoveredRun> staleRuns = new ArrayList<>();
+        Map<String, String> newTopicNames = new HashMap<>();
+        Map<Long, TimeStamp> newTimeStamps = new HashMap<>();
+        int runsCount = 0;
+        long now = System.currentTimeMillis();
+        for (File topicFolder : reader.listTopicFolders()) {
+            String topicName = topicNames.get(topicFolder.getName());
+            if (topicName == null) {
+                topicName = topicFolder.getName();
+            }
+            newTopicNames.put(topicName, topicName);
+            DiscoveredTopic discoveredTopic = new DiscoveredTopic(topicName);
+            File[] runFolders = reader.listRunFolders(reader.getHistoryFolder(topicFolder));
+            for (int i = 0; i < runFolders.length; i++) {
+                File timestampFolder = runFolders[i];
+                File offsetsFile = reader.getOffsetsFile(timestampFolder);
+                //the run folders are sorted, so the last one is the newest run, which could be still written
+                DiscoveredRun discoveredRun = new DiscoveredRun(discoveredTopic, offsetsFile, i == runFolders.length - 1,
+                        now - tailSettleMs);
+                LoadedRun loadedRun = loadedRuns.get(discoveredRun.path);
+                discoveredRun.previous = loadedRun;
+                if (loadedRun != null && loadedRun.isActual(discoveredRun)) {
+                    //the tail isn't needed anymore when another run becomes the newest
+                    discoveredRun.loaded = discoveredRun.newest ? loadedRun : loadedRun.withoutTail();
+                    getTimeStamp(loadedRun.run.getTimeStamp(), loadedRun.run.getStringTimeStamp(), newTimeStamps);
+                } else {
+                    discoveredRun.timeStamp = getTimeStamp(reader.readTimeStamp(timestampFolder), null, newTimeStamps);
+                    staleRuns.add(discoveredRun);
+                    discoveredTopic.pendingRuns.incrementAndGet();
+                }
+                discoveredTopic.runs.add(discoveredRun);
+                runsCount++;
+            }
+            discoveredTopics.add(discoveredTopic);
+        }
+
+        listingPhase.end(discoveredTopics.size(), runsCount, 0);
+        topicNames = newTopicNames;
+        timeStamps = newTimeStamps;
+
+        topicsTotal.set(discoveredTopics.size());
+        runsTotal.set(runsCount);
+        runsLoaded.set(runsCount - staleRuns.size());
+        int topicsCount = 0;
+        for (DiscoveredTopic discoveredTopic : discoveredTopics) {
+            if (discoveredTopic.pendingRuns.get() == 0) {
+                topicsCount++;
+            }
+        }
+        topicsLoaded.set(topicsCount);
+
+        long parsingStart = System.currentTimeMillis();
+        if (logPhases) {
+            log.info("Discovery of {} completed in {} ms: {} topics, {} runs", baseDir, parsingStart - discoveryStart,
+                    discoveredTopics.size(), runsCount);
+        }
+
+        //parsing phase: the new or changed offsets files are read in parallel
+        if (!staleRuns.isEmpty()) {
+            Phase parsingPhase = Phase.start(Phase.PARSING);
+            parse(reader, staleRuns);
+            long partitionsCount = 0;
+            for (DiscoveredRun staleRun : staleRuns) {
+                partitionsCount += staleRun.loaded.run.getOffsetTable().size();
+            }
+            parsingPhase.end(discoveredTopics.size() - topicsCount, staleRuns.size(), partitionsCount);
+        }
+
+        long assemblingStart = System.currentTimeMillis();
+        if (logPhases) {
+            log.info("Parsing of {} offsets files completed in {} ms on {} threads", staleRuns.size(),
+                    assemblingStart - parsingStart, Math.min(parallelism, Math.max(staleRuns.size(), 1)));
+        }
+
+        //assembling phase: nothing has changed if there were no stale runs and no runs or topics were removed or added
+        if (snapshot != null && staleRuns.isEmpty() && runsCount == loadedRuns.size() && hasSameTopics(discoveredTopics)) {
+            return;
+        }
+
+        //the runs are new if they have not been loaded before, but the whole first load is not reported
+        boolean notifyNewRuns = snapshot != null && hasListening();
+        Map<String, LoadedRun> previousLoadedRuns = loadedRuns;
+
+        LinkedHashSet<Topic> newTopics = new LinkedHashSet<>(discoveredTopics.size());
+        Map<String, LoadedRun> newLoadedRuns = new HashMap<>(runsCount);
+        for (DiscoveredTopic discoveredTopic : discoveredTopics) {
+            LinkedHashSet<Run> runs = new LinkedHashSet<>(discoveredTopic.runs.size());
+            for (DiscoveredRun discoveredRun : discoveredTopic.runs) {
+                runs.add(discoveredRun.loaded.run);
+                newLoadedRuns.put(discoveredRun.path, discoveredRun.loaded);
+            }
+            newTopics.add(new Topic(discoveredTopic.topicName, runs));
+        }
+
+        snapshot = new TopicsSnapshot(++snapshotVersion, newTopics);
+        loadedRuns = newLoadedRuns;
+        loadedBaseDir = baseDir;
+        layouts.purge();
+
+        if (logPhases) {
+            log.info("Assembling of {} topics completed in {} ms", newTopics.size(), System.currentTimeMillis() - assemblingStart);
+        }
+
+        if (notifyNewRuns) {
+            for (DiscoveredRun staleRun : staleRuns) {
+                if (!previousLoadedRuns.containsKey(staleRun.path)) {
+                    newRuns.add(new NewRun(staleRun.topic.topicName, staleRun.loaded.run));
+                }
+            }
+        }
+    }
+
+    /**
+     * method for checking if any of the listeners has anyone to report the new runs to
+     */
+    private boolean hasListening() {
+        for (NewRunsListener listener : newRunsListeners) {
+            if (listener.isListening()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method for notifying the listeners about the queued new runs, which is called after the storage lock is released,
+     * so the slow listener doesn't stall the requests. The runs are sent by one thread at a time in the order
+     * they were queued, the others leave their runs to it. The listener failure doesn't affect the others.
+     */
+    private void notifyNewRuns() {
+        while (!newRuns.isEmpty() && notifying.compareAndSet(false, true)) {
+            try {
+                NewRun newRun;
+                while ((newRun = newRuns.poll()) != null) {
+                    for (NewRunsListener listener : newRunsListeners) {
+                        try {
+                            listener.onNewRun(newRun.topicName, newRun.run);
+                        } catch (RuntimeException e) {
+                            log.warn("New run listener failed", e);
+                        }
+                    }
+                }
+            } finally {
+                notifying.set(false);
+            }
+        }
+    }
+
+    /**
+     * Method for checking if the discovered topics are the same as the loaded ones
+     */
+    private boolean hasSameTopics(List<DiscoveredTopic> discoveredTopics) {
+        if (discoveredTopics.size() != snapshot.getTopics().size()) {
+            return false;
+        }
+        Iterator<Topic> topicsIterator = snapshot.getTopics().iterator();
+        for (DiscoveredTopic discoveredTopic : discoveredTopics) {
+            if (!discoveredTopic.topicName.equals(topicsIterator.next().getTopicName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method for reading the offsets files of the runs in parallel
+     */
+    private void parse(final RunsFileReader reader, List<DiscoveredRun> staleRuns) throws IOException, ParseException {
+        List<Future<LoadedRun>> futures = new ArrayList<>(staleRuns.size());
+        for (final DiscoveredRun discoveredRun : staleRuns) {
+            futures.add(getLoaderPool().submit(new Callable<LoadedRun>() {
+                @Override
+                public LoadedRun call() throws Exception {
+                    LoadedRun loadedRun = discoveredRun.newest ? readTail(discoveredRun) : new LoadedRun(
+                            new Run(discoveredRun.timeStamp.date, discoveredRun.timeStamp.formatted,
+                                    reader.readOffsetTable(discoveredRun.offsetsFile, offHeap, layouts)),
+                            discoveredRun, null, true);
+                    runsLoaded.incrementAndGet();
+                    if (discoveredRun.topic.pendingRuns.decrementAndGet() == 0) {
+                        topicsLoaded.incrementAndGet();
+                    }
+                    return loadedRun;
+                }
+            }));
+        }
+
+        try {
+            for (int i = 0; i < staleRuns.size(); i++) {
+                staleRuns.get(i).loaded = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Reading of the offsets files was interrupted", e);
+        } catch (ExecutionException e) {
+            for (Future<LoadedRun> future : futures) {
+                future.cancel(true);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ParseException) {
+                throw (ParseException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Method for reading the offsets file of the newest run of the topic. The tail of the previous read is continued
+     * if the file has only been appended since then, otherwise the file is read from the beginning.
+     */
+    private LoadedRun readTail(DiscoveredRun discoveredRun) throws IOException, ParseException {
+        OffsetsFileTail tail = discoveredRun.previous == null ? null : discoveredRun.previous.tail;
+        if (tail == null || !tail.isContinuedBy(discoveredRun.length)) {
+            tail = new OffsetsFileTail(discoveredRun.offsetsFile);
+        }
+        tail.read(discoveredRun.settled);
+        OffsetTable offsetTable = tail.getOffsetTable(offHeap, layouts);
+        return new LoadedRun(new Run(discoveredRun.timeStamp.date, discoveredRun.timeStamp.formatted, offsetTable), discoveredRun, tail, !tail.hasPendingLine());
+    }
+
+    /**
+     * method for getting the canonical timestamp of the time, which is the one of the previous refresh if there was
+     * such time then. The formatted value is made only for the new time if it's not given.
+     * The timestamps of the runs of the current refresh are collected into the new map
+     */
+    private TimeStamp getTimeStamp(Date date, String formatted, Map<Long, TimeStamp> newTimeStamps) {
+        TimeStamp timeStamp = newTimeStamps.get(date.getTime());
+        if (timeStamp == null) {
+            timeStamp = timeStamps.get(date.getTime());
+            if (timeStamp == null) {
+                timeStamp = new TimeStamp(date, formatted == null ? RunsFileReader.formatTimeStamp(date) : formatted);
+            }
+            newTimeStamps.put(date.getTime(), timeStamp);
+        }
+        return timeStamp;
+    }
+
+    private ExecutorService getLoaderPool() {
+        if (loaderPool == null) {
+            final AtomicInteger threadNo = new AtomicInteger();
+            loaderPool = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "offsets-loader-" + threadNo.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return loaderPool;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        if (loaderPool != null) {
+            loaderPool.shutdownNow();
+            loaderPool = null;
+        }
+    }
+
+    /**
+     * the run which has appeared since the previous refresh, waiting to be sent to the listeners
+     */
+    private static class NewRun {
+        private final String topicName;
+        private final Run run;
+
+        private NewRun(String topicName, Run run) {
+            this.topicName = topicName;
+            this.run = run;
+        }
+    }
+
+    /**
+     * the timestamp of the runs with its formatted value, both shared by all the runs of the same time
+     */
+    private static class TimeStamp {
+        private final Date date;
+        private final String formatted;
+
+        private TimeStamp(Date date, String formatted) {
+            this.date = date;
+            this.formatted = formatted;
+        }
+    }
+
+    /**
+     * the topic folder found during the discovery phase
+     */
+    private static class DiscoveredTopic {
+        private final String topicName;
+        private final List<DiscoveredRun> runs = new ArrayList<>();
+        private final AtomicInteger pendingRuns = new AtomicInteger();
+
+        private DiscoveredTopic(String topicName) {
+            this.topicName = topicName;
+        }
+    }
+
+    /**
+     * the run folder found during the discovery phase
+     */
+    private static class DiscoveredRun {
+        private final DiscoveredTopic topic;
+        private final File offsetsFile;
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private final boolean newest;
+        //true if the file isn't modified for the settle interval, so it's unlikely to be still written
+        private final boolean settled;
+        private TimeStamp timeStamp;
+        private LoadedRun previous;
+        private LoadedRun loaded;
+
+        private DiscoveredRun(DiscoveredTopic topic, File offsetsFile, boolean newest, long settledBefore) {
+            this.topic = topic;
+            this.offsetsFile = offsetsFile;
+            this.path = offsetsFile.getAbsolutePath();
+            this.length = offsetsFile.length();
+            this.lastModified = offsetsFile.lastModified();
+            this.newest = newest;
+            this.settled = lastModified <= settledBefore;
+        }
+    }
+
+    /**
+     * the run read from the offsets file, with the file attributes it was read with.
+     * The newest run keeps the tail of the file to continue reading it, and it's incomplete
+     * while the trailing line of the file is pending.
+     */
+    private static class LoadedRun {
+        private final Run run;
+        private final long length;
+        private final long lastModified;
+        private final OffsetsFileTail tail;
+        private final boolean complete;
+
+        private LoadedRun(Run run, DiscoveredRun discoveredRun, OffsetsFileTail tail, boolean complete) {
+            this.run = run;
+            this.length = discoveredRun.length;
+            this.lastModified = discoveredRun.lastModified;
+            this.tail = tail;
+            this.complete = complete;
+        }
+
+        private LoadedRun(LoadedRun loadedRun, OffsetsFileTail tail) {
+            this.run = loadedRun.run;
+            this.length = loadedRun.length;
+            this.lastModified = loadedRun.lastModified;
+            this.tail = tail;
+            this.complete = loadedRun.complete;
+        }
+
+        private LoadedRun withoutTail() {
+            return tail == null ? this : new LoadedRun(this, null);
+        }
+
+        private boolean isActual(DiscoveredRun discoveredRun) {
+            if (length != discoveredRun.length || lastModified != discoveredRun.lastModified) {
+                return false;
+            }
+            //the pending line is completed once the file settles or another run becomes the newest
+            return complete || (discoveredRun.newest && !discoveredRun.settled);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package org.megafon.task.tracing;
+
+/**
+ * Class for measuring one phase of the request processing. The phase is reported as the Flight Recorder event
+ * and is added to the trace of the current request, if there is one. The JVMs before JDK 8u262 have no
+ * Flight Recorder API, so there the phases are only added to the traces.
+ *
+ * Usage:
+ * Phase phase = Phase.start(Phase.PARSING);
+ * ...
+ * phase.end(topicsCount, runsCount, partitionsCount);
+ */
+public class Phase {
+    public static final String LISTING = "listing";
+    public static final String PARSING = "parsing";
+    public static final String FILTER = "filter";
+    public static final String STATS = "stats";
+    public static final String SERIALIZATION = "serialization";
+
+    private static final boolean RECORDED = isRecorderAvailable();
+
+    private final String name;
+    private final long start;
+    //the event is referenced as Object, so the JVMs without the Flight Recorder API never load its class
+    private final Object event;
+
+    private Phase(String name) {
+        this.name = name;
+        this.event = RECORDED ? PhaseEvent.beginPhase() : null;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Method for starting the phase
+     * @param name the name of the phase
+     * @return the started phase, which should be ended in the same thread
+     */
+    public static Phase start(String name) {
+        return new Phase(name);
+    }
+
+    /**
+     * Method for ending the phase with the amounts of the data it has processed
+     * @param topics the amount of the topics
+     * @param runs the amount of the runs
+     * @param partitions the amount of the partitions of all the runs
+     */
+    public void end(int topics, int runs, long partitions) {
+        long duration = System.nanoTime() - start;
+        RequestTrace trace = RequestTrace.current();
+        if (trace != null) {
+            trace.addPhase(name, duration);
+        }
+
+        if (event != null) {
+            PhaseEvent.endPhase(event, name, trace == null ? null : trace.getRequest(), topics, runs, partitions);
+        }
+    }
+
+    /**
+     * method for checking if the Flight Recorder API exists in the JVM
+     */
+    private static boolean isRecorderAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Phase.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
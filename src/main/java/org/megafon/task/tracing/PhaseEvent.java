@@ -0,0 +1,68 @@
+package org.megafon.task.tracing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Class for the Flight Recorder event of one phase of the request processing.
+ * The event is committed only while it's enabled in the recording, so it costs almost nothing otherwise.
+ * The Flight Recorder API exists only from JDK 8u262 on, so the class is used only through its static methods,
+ * which are called only when the API is available.
+ */
+@Name("org.megafon.task.Phase")
+@Label("Request Phase")
+@Category("Megafon Test Task")
+@Description("Phase of the request processing with the amounts of the data it has processed")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Request")
+    String request;
+
+    @Label("Topics")
+    int topics;
+
+    @Label("Runs")
+    int runs;
+
+    @Label("Partitions")
+    long partitions;
+
+    /**
+     * Method for beginning the event of the phase
+     * @return the begun event
+     */
+    static Object beginPhase() {
+        PhaseEvent event = new PhaseEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Method for ending the event of the phase and committing it if it's enabled in the recording
+     * @param phaseEvent the event returned by the beginPhase method
+     * @param phase the name of the phase
+     * @param request the request, or null if the phase isn't a part of the request
+     * @param topics the amount of the topics
+     * @param runs the amount of the runs
+     * @param partitions the amount of the partitions of all the runs
+     */
+    static void endPhase(Object phaseEvent, String phase, String request, int topics, int runs, long partitions) {
+        PhaseEvent event = (PhaseEvent) phaseEvent;
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.request = request;
+            event.topics = topics;
+            event.runs = runs;
+            event.partitions = partitions;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package org.megafon.task.tracing;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class for the durations of the phases of one request. The trace is bound to the thread processing the request,
+ * so the phases are added to it without any synchronization. The repeated phases are summed up.
+ */
+public class RequestTrace {
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final String request;
+    private final long start = System.nanoTime();
+    private String[] names = new String[INITIAL_CAPACITY];
+    private long[] durations = new long[INITIAL_CAPACITY];
+    private int size = 0;
+
+    /**
+     * @param request the description of the request, e.g. its path with the query
+     */
+    public RequestTrace(String request) {
+        this.request = request;
+    }
+
+    /**
+     * @return the trace of the request processed by the current thread, or null if there is none
+     */
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Method for binding the trace to the current thread
+     * @param trace the trace, or null to unbind the current one
+     */
+    public static void setCurrent(RequestTrace trace) {
+        if (trace == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(trace);
+        }
+    }
+
+    public String getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the time since the start of the request in nanoseconds
+     */
+    public long getElapsed() {
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Method for adding the duration of the phase
+     * @param name the name of the phase
+     * @param duration the duration in nanoseconds
+     */
+    public void addPhase(String name, long duration) {
+        for (int i = 0; i < size; i++) {
+            if (names[i].equals(name)) {
+                durations[i] += duration;
+                return;
+            }
+        }
+        if (size == names.length) {
+            names = Arrays.copyOf(names, size * 2);
+            durations = Arrays.copyOf(durations, size * 2);
+        }
+        names[size] = name;
+        durations[size] = duration;
+        size++;
+    }
+
+    /**
+     * @return the durations of the phases in milliseconds, in the order the phases were first added
+     */
+    public Map<String, Double> getPhases() {
+        Map<String, Double> phases = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            phases.put(names[i], toMillis(durations[i]));
+        }
+        return phases;
+    }
+
+    /**
+     * Method for formatting the phases as the value of the Server-Timing header,
+     * with the time since the start of the request as the 'total' metric
+     */
+    public String toServerTiming() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            builder.append(names[i]).append(";dur=").append(toMillis(durations[i])).append(", ");
+        }
+        return builder.append("total;dur=").append(toMillis(getElapsed())).toString();
+    }
+
+    /**
+     * method for converting the nanoseconds to the milliseconds rounded to the microseconds
+     */
+    static double toMillis(long nanos) {
+        return Math.round(nanos / 1000.0) / 1000.0;
+    }
+}
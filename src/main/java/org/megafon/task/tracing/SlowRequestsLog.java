@@ -0,0 +1,80 @@
+package org.megafon.task.tracing;
+
+import org.megafon.task.entities.SlowRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Class for keeping the recent slow requests in the ring buffer. Only the requests slower than the threshold
+ * are recorded, and the oldest of them are overwritten, so the memory is bounded and the fast requests cost
+ * a single comparison.
+ */
+@Component
+public class SlowRequestsLog {
+    private static final Comparator<SlowRequest> SLOWEST_FIRST = new Comparator<SlowRequest>() {
+        @Override
+        public int compare(SlowRequest o1, SlowRequest o2) {
+            return Double.compare(o2.getDurationMs(), o1.getDurationMs());
+        }
+    };
+
+    private final long thresholdNanos;
+    private final SlowRequest[] requests;
+    private int next = 0;
+
+    /**
+     * @param thresholdMs the minimum duration of the request to be recorded
+     * @param capacity the maximum amount of the recorded requests
+     */
+    @Autowired
+    public SlowRequestsLog(@Value("${tracing.slow_threshold_ms:200}") long thresholdMs,
+                           @Value("${tracing.slow_requests:32}") int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity of the slow requests log should be positive");
+        }
+        this.thresholdNanos = thresholdMs * 1000000L;
+        this.requests = new SlowRequest[capacity];
+    }
+
+    /**
+     * Method for recording the completed request, if it was slow
+     * @param trace the trace of the request
+     * @param status the status code of the response
+     */
+    public void record(RequestTrace trace, int status) {
+        long duration = trace.getElapsed();
+        if (duration < thresholdNanos) {
+            return;
+        }
+
+        SlowRequest request = new SlowRequest(trace.getRequest(), status, new Date(), RequestTrace.toMillis(duration),
+                trace.getPhases());
+        synchronized (this) {
+            requests[next] = request;
+            next = (next + 1) % requests.length;
+        }
+    }
+
+    /**
+     * @return the recorded requests, the slowest first
+     */
+    public List<SlowRequest> getRequests() {
+        List<SlowRequest> result = new ArrayList<>(requests.length);
+        synchronized (this) {
+            for (SlowRequest request : requests) {
+                if (request != null) {
+                    result.add(request);
+                }
+            }
+        }
+        Collections.sort(result, SLOWEST_FIRST);
+        return result;
+    }
+}
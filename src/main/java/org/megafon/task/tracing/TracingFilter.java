@@ -0,0 +1,102 @@
+package org.megafon.task.tracing;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Class for tracing the requests. Every request gets its trace, which collects the durations of the phases.
+ * They are sent in the Server-Timing header, which is added right before the response body is written,
+ * so the phases completed by then are in it. The slow requests are recorded with all their phases
+ * to the slow requests log after they complete.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class TracingFilter extends OncePerRequestFilter {
+    private static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+    private final SlowRequestsLog slowRequestsLog;
+
+    @Autowired
+    public TracingFilter(SlowRequestsLog slowRequestsLog) {
+        this.slowRequestsLog = slowRequestsLog;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String description = request.getQueryString() == null ? request.getRequestURI()
+                : request.getRequestURI() + "?" + request.getQueryString();
+        RequestTrace trace = new RequestTrace(description);
+        TimingResponse timingResponse = new TimingResponse(response, trace);
+
+        RequestTrace.setCurrent(trace);
+        try {
+            filterChain.doFilter(request, timingResponse);
+        } finally {
+            RequestTrace.setCurrent(null);
+            slowRequestsLog.record(trace, timingResponse.getStatus());
+        }
+    }
+
+    /**
+     * the response, which adds the Server-Timing header before its body is written
+     */
+    private static class TimingResponse extends HttpServletResponseWrapper {
+        private final RequestTrace trace;
+        private boolean timingAdded = false;
+
+        private TimingResponse(HttpServletResponse response, RequestTrace trace) {
+            super(response);
+            this.trace = trace;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addTiming();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addTiming();
+            return super.getWriter();
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addTiming();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addTiming();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addTiming();
+            super.sendError(sc);
+        }
+
+        private void addTiming() {
+            if (!timingAdded && !isCommitted()) {
+                timingAdded = true;
+                setHeader(SERVER_TIMING_HEADER, trace.toServerTiming());
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.megafon.task.tracing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.megafon.task.entities.Run;
+import org.megafon.task.entities.Topic;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Class for the JSON converter, which measures the serialization of the responses as the phase of the request.
+ * It replaces the default JSON converter and uses the same object mapper.
+ */
+@Component
+public class TracingJacksonConverter extends MappingJackson2HttpMessageConverter {
+
+    @Autowired
+    public TracingJacksonConverter(ObjectMapper objectMapper) {
+        super(objectMapper);
+    }
+
+    @Override
+    protected void writeInternal(Object object, HttpOutputMessage outputMessage) throws IOException, HttpMessageNotWritableException {
+        Phase phase = Phase.start(Phase.SERIALIZATION);
+        super.writeInternal(object, outputMessage);
+
+        //the topics are counted with their runs, the items of the other collections are counted as the runs
+        int topics = 0;
+        int runs = 0;
+        long partitions = 0;
+        if (object instanceof Collection) {
+            for (Object item : (Collection<?>) object) {
+                if (!(item instanceof Topic)) {
+                    runs = ((Collection<?>) object).size();
+                    break;
+                }
+                topics++;
+                for (Run run : ((Topic) item).getRuns()) {
+                    runs++;
+                    partitions += run.getOffsetTable().size();
+                }
+            }
+        }
+        phase.end(topics, runs, partitions);
+    }
+}
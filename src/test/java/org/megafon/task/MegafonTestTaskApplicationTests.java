@@ -1,22 +1,63 @@
 package org.megafon.task;
 
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.megafon.task.admission.AdmissionFilter;
+import org.megafon.task.admission.AdmissionLimiter;
+import org.megafon.task.compression.CompressionFilter;
+import org.megafon.task.entities.OffsetTable;
+import org.megafon.task.entities.OffsetTableBuilder;
+import org.megafon.task.entities.PartitionLayout;
+import org.megafon.task.entities.Run;
+import org.megafon.task.entities.Topic;
+import org.megafon.task.events.NewRunsPublisher;
+import org.megafon.task.events.RunsSubscriber;
 import org.megafon.task.readers.RunsFileReader;
+import org.megafon.task.stats.PartitionCounts;
+import org.megafon.task.storage.TopicsSnapshot;
+import org.megafon.task.storage.TopicsStorage;
+import org.megafon.task.tracing.SlowRequestsLog;
+import org.megafon.task.tracing.TracingFilter;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.http.MediaType;
+import org.springframework.mock.env.MockEnvironment;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @SpringApplicationConfiguration(classes = MegafonTestTaskApplication.class)
@@ -27,6 +68,15 @@ public class MegafonTestTaskApplicationTests {
 	public static final String TEST_BASE_DIR = "src/test/resources";
 	private MockMvc mvc;
 
+	@Autowired
+	private TopicsStorage topicsStorage;
+
+	@Autowired
+	private NewRunsPublisher newRunsPublisher;
+
+	@Autowired
+	private SlowRequestsLog slowRequestsLog;
+
 	/**
 	 * Method which clears the specified folder and then populates it with the file structure needed.
 	 */
@@ -59,7 +109,7 @@ public class MegafonTestTaskApplicationTests {
 		}
 
 		//creating mock for the REST server
-		mvc = MockMvcBuilders.standaloneSetup(new TestTaskController()).build();
+		mvc = MockMvcBuilders.standaloneSetup(new TestTaskController(topicsStorage, newRunsPublisher, slowRequestsLog)).build();
 		//setting the base directory as if we'd given it with a parameter
 		TestTaskController.baseDir = TEST_BASE_DIR;
 	}
@@ -156,6 +206,514 @@ public class MegafonTestTaskApplicationTests {
 						"{\"topic_name\":\"topic_2\",\"topic_runs\":[{\"offsets\":[],\"time_stamp\":\"1970-01-01-03-00-00\"},{\"offsets\":[],\"time_stamp\":\"1974-10-03-05-40-00\"}]}]")));
 	}
 
+	/**
+	 * Test for the /ready request after the warm-up
+	 */
+	@Test
+	public void getReadinessTest() throws Exception {
+		topicsStorage.warmUp(TEST_BASE_DIR);
+
+		mvc.perform(MockMvcRequestBuilders.get("/ready"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(equalTo("{\"ready\":true,\"topics_loaded\":2,\"topics_total\":2,\"runs_loaded\":4,\"runs_total\":4}")));
+	}
+
+
+	/**
+	 * Test for the readiness after the failed warm-up, once the base directory is fixed
+	 */
+	@Test
+	public void readinessRecoveryTest() throws Exception {
+		TopicsStorage recoveringStorage = new TopicsStorage("heap", 5000);
+		File badRunDir = new File(TEST_BASE_DIR, "topic_1/history/2000-01-01-00-00-00");
+		badRunDir.mkdir();
+
+		try {
+			try {
+				recoveringStorage.warmUp(TEST_BASE_DIR);
+				fail("Warm-up should fail on the run folder without the offsets file");
+			} catch (IOException e) {
+				assertFalse(recoveringStorage.isReady());
+				assertNotNull(recoveringStorage.getLoadError());
+			}
+
+			badRunDir.delete();
+			recoveringStorage.getSnapshot(TEST_BASE_DIR);
+			assertTrue(recoveringStorage.isReady());
+			assertNull(recoveringStorage.getLoadError());
+		} finally {
+			recoveringStorage.shutdown();
+		}
+	}
+
+	/**
+	 * Test for the /get_partition_history request with different parameter values
+	 */
+	@Test
+	public void getPartitionHistoryTest() throws Exception {
+		mvc.perform(MockMvcRequestBuilders.get("/get_partition_history").param("topic", "topic_1").param("partition", "2"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(equalTo("{\"topic_name\":\"topic_1\",\"partition_no\":2,\"history\":[" +
+						"{\"time_stamp\":\"1970-01-01-03-00-00\",\"message_count\":10},{\"time_stamp\":\"1974-10-03-05-40-00\",\"message_count\":10}]}")));
+
+		mvc.perform(MockMvcRequestBuilders.get("/get_partition_history").param("topic", "topic_1").param("partition", "1")
+				.param("from", "1970-01-02-00-00-00").param("to", "1974-10-03-05-40-00"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(equalTo("{\"topic_name\":\"topic_1\",\"partition_no\":1,\"history\":[" +
+						"{\"time_stamp\":\"1974-10-03-05-40-00\",\"message_count\":0}]}")));
+
+		mvc.perform(MockMvcRequestBuilders.get("/get_partition_history").param("topic", "topic_2").param("partition", "1"))
+				.andExpect(status().isNotFound());
+
+		mvc.perform(MockMvcRequestBuilders.get("/get_partition_history").param("topic", "topic_1").param("partition", "x"))
+				.andExpect(status().isBadRequest());
+	}
+
+	/**
+	 * Test for the /get_top request with different parameter values
+	 */
+	@Test
+	public void getTopTest() throws Exception {
+		mvc.perform(MockMvcRequestBuilders.get("/get_top").param("by", "total").param("k", "1"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"time_stamp\":\"1974-10-03-05-40-00\",\"value\":10}]")));
+
+		mvc.perform(MockMvcRequestBuilders.get("/get_top").param("by", "growth").param("pos", "any"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"time_stamp\":\"1974-10-03-05-40-00\",\"value\":0}," +
+						"{\"topic_name\":\"topic_2\",\"time_stamp\":\"1974-10-03-05-40-00\",\"value\":0}]")));
+
+		mvc.perform(MockMvcRequestBuilders.get("/get_top").param("by", "max").param("k", "2").param("scope", "partitions"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"partition_no\":2,\"time_stamp\":\"1974-10-03-05-40-00\",\"value\":10}," +
+						"{\"topic_name\":\"topic_1\",\"partition_no\":1,\"time_stamp\":\"1974-10-03-05-40-00\",\"value\":0}]")));
+
+		mvc.perform(MockMvcRequestBuilders.get("/get_top").param("by", "anything"))
+				.andExpect(status().isBadRequest());
+	}
+
+	/**
+	 * Test for the /batch request with different sub-requests
+	 */
+	@Test
+	public void getBatchTest() throws Exception {
+		mvc.perform(MockMvcRequestBuilders.post("/batch").contentType(MediaType.APPLICATION_JSON)
+				.content("[{\"endpoint\":\"get_topics\",\"params\":{\"empty\":\"n\"}}," +
+						"{\"endpoint\":\"/get_time_stamps\",\"params\":{\"pos\":\"last\"}}," +
+						"{\"endpoint\":\"get_stats\",\"params\":{\"pos\":\"first\",\"stats\":\"sum\"}}," +
+						"{\"endpoint\":\"get_stats\"}," +
+						"{\"endpoint\":\"get_anything\"}]"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(equalTo("[{\"endpoint\":\"get_topics\",\"status\":200,\"body\":[\"topic_1\"]}," +
+						"{\"endpoint\":\"/get_time_stamps\",\"status\":200,\"body\":[{\"topic_name\":\"topic_1\",\"time_stamp\":\"1974-10-03-05-40-00\"},{\"topic_name\":\"topic_2\",\"time_stamp\":\"1974-10-03-05-40-00\"}]}," +
+						"{\"endpoint\":\"get_stats\",\"status\":200,\"body\":[{\"topic_name\":\"topic_1\",\"total_message_count\":10,\"time_stamp\":\"1970-01-01-03-00-00\"},{\"topic_name\":\"topic_2\",\"total_message_count\":0,\"time_stamp\":\"1970-01-01-03-00-00\"}]}," +
+						"{\"endpoint\":\"get_stats\",\"status\":400,\"body\":\"Required String parameter 'stats' is not present\"}," +
+						"{\"endpoint\":\"get_anything\",\"status\":404,\"body\":\"Unknown endpoint 'get_anything'\"}]")));
+
+		mvc.perform(MockMvcRequestBuilders.post("/batch").contentType(MediaType.APPLICATION_JSON)
+				.content("[null,{\"params\":{\"pos\":\"last\"}}]"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(equalTo("[{\"endpoint\":null,\"status\":400,\"body\":\"Required String field 'endpoint' is not present\"}," +
+						"{\"endpoint\":null,\"status\":400,\"body\":\"Required String field 'endpoint' is not present\"}]")));
+	}
+
+	/**
+	 * Test for the new runs events, which are sent to the subscribers of the topic when the run appears
+	 */
+	@Test
+	public void newRunsEventsTest() throws Exception {
+		final List<String> events = new ArrayList<>();
+		RunsSubscriber subscriber = new RunsSubscriber() {
+			@Override
+			public boolean accepts(String topicName) {
+				return "topic_1".equals(topicName);
+			}
+
+			@Override
+			public List<String> getStatTypes() {
+				return Arrays.asList("sum");
+			}
+
+			@Override
+			public boolean offer(String event) {
+				events.add(event);
+				return true;
+			}
+		};
+
+		topicsStorage.getTopics(TEST_BASE_DIR);
+		newRunsPublisher.subscribe(TEST_BASE_DIR, subscriber);
+		assertTrue(newRunsPublisher.isPolling());
+
+		File runDir = new File(TEST_BASE_DIR, "topic_1/history/1980-01-01-00-00-00");
+		File otherRunDir = new File(TEST_BASE_DIR, "topic_2/history/1980-01-01-00-00-00");
+		try {
+			for (File dir : new File[]{runDir, otherRunDir}) {
+				dir.mkdir();
+				PrintWriter writer = new PrintWriter(new File(dir, "offsets.csv"), "UTF-8");
+				writer.println("1,5");
+				writer.close();
+			}
+
+			topicsStorage.getTopics(TEST_BASE_DIR);
+
+			assertEquals(Arrays.asList(": subscribed\n\n",
+					"event: run\ndata: {\"topic_name\":\"topic_1\",\"total_message_count\":5,\"time_stamp\":\"1980-01-01-00-00-00\"}\n\n"),
+					events);
+		} finally {
+			newRunsPublisher.unsubscribe(subscriber);
+			clearFolder(runDir);
+			runDir.delete();
+			clearFolder(otherRunDir);
+			otherRunDir.delete();
+		}
+		assertFalse(newRunsPublisher.isPolling());
+	}
+
+	/**
+	 * Test for the /get_stats request while the offsets file of the newest run is still written
+	 */
+	@Test
+	public void growingOffsetsFileTest() throws Exception {
+		File runDir = new File(TEST_BASE_DIR, "topic_1/history/1980-01-01-00-00-00");
+		File offsets = new File(runDir, "offsets.csv");
+		try {
+			runDir.mkdir();
+			PrintWriter writer = new PrintWriter(offsets, "UTF-8");
+			writer.print("1,5\n3,");
+			writer.close();
+
+			mvc.perform(MockMvcRequestBuilders.get("/get_stats").param("pos", "last").param("stats", "sum"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"total_message_count\":5,\"time_stamp\":\"1980-01-01-00-00-00\"}," +
+							"{\"topic_name\":\"topic_2\",\"total_message_count\":0,\"time_stamp\":\"1974-10-03-05-40-00\"}]")));
+
+			writer = new PrintWriter(new FileWriter(offsets, true));
+			writer.print("7\n");
+			writer.close();
+
+			mvc.perform(MockMvcRequestBuilders.get("/get_stats").param("pos", "last").param("stats", "sum"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"total_message_count\":12,\"time_stamp\":\"1980-01-01-00-00-00\"}," +
+							"{\"topic_name\":\"topic_2\",\"total_message_count\":0,\"time_stamp\":\"1974-10-03-05-40-00\"}]")));
+		} finally {
+			clearFolder(runDir);
+			runDir.delete();
+		}
+	}
+
+	/**
+	 * Test for the /get_stats request after the offsets file of the newest run is rewritten beyond its read position
+	 */
+	@Test
+	public void rewrittenOffsetsFileTest() throws Exception {
+		File runDir = new File(TEST_BASE_DIR, "topic_1/history/1980-01-01-00-00-00");
+		File offsets = new File(runDir, "offsets.csv");
+		try {
+			runDir.mkdir();
+			PrintWriter writer = new PrintWriter(offsets, "UTF-8");
+			writer.print("1,5\n2,6\n");
+			writer.close();
+
+			mvc.perform(MockMvcRequestBuilders.get("/get_stats").param("pos", "last").param("stats", "sum"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"total_message_count\":11,\"time_stamp\":\"1980-01-01-00-00-00\"}," +
+							"{\"topic_name\":\"topic_2\",\"total_message_count\":0,\"time_stamp\":\"1974-10-03-05-40-00\"}]")));
+
+			//the file is truncated and grows past the previous position, so it's read from the beginning
+			writer = new PrintWriter(offsets, "UTF-8");
+			writer.print("3,1\n4,2\n5,30\n");
+			writer.close();
+
+			mvc.perform(MockMvcRequestBuilders.get("/get_stats").param("pos", "last").param("stats", "sum"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"total_message_count\":33,\"time_stamp\":\"1980-01-01-00-00-00\"}," +
+							"{\"topic_name\":\"topic_2\",\"total_message_count\":0,\"time_stamp\":\"1974-10-03-05-40-00\"}]")));
+		} finally {
+			clearFolder(runDir);
+			runDir.delete();
+		}
+	}
+
+	/**
+	 * Test for the /get_stats request with the approximate statistics of the large and the small runs
+	 */
+	@Test
+	public void getApproximateStatsTest() throws Exception {
+		File runDir = new File(TEST_BASE_DIR, "topic_1/history/1980-01-01-00-00-00");
+		try {
+			runDir.mkdir();
+			PrintWriter writer = new PrintWriter(new File(runDir, "offsets.csv"), "UTF-8");
+			for (int i = 0; i < 20000; i++) {
+				writer.println(i + "," + i);
+			}
+			writer.close();
+
+			mvc.perform(MockMvcRequestBuilders.get("/get_stats").param("pos", "last").param("stats", "sum,max,p50").param("approx", "true"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(allOf(
+							startsWith("[{\"topic_name\":\"topic_1\",\"total_message_count\":200000000,\"max_message_count\":19999,\"percentiles\":{\"p50\":9995},"),
+							containsString("\"sampled_partitions\":2000,"),
+							containsString("{\"topic_name\":\"topic_2\",\"total_message_count\":0,\"total_message_count_bounds\":[0,0],\"sampled_partitions\":0,"))));
+			//only the large run is sampled, the small ones are calculated from all their partitions
+			TopicsSnapshot snapshot = topicsStorage.getLoadedSnapshot();
+			assertEquals(snapshot.getOffsetsCount() - 20000 + 2000, snapshot.getSampledOffsetsCount());
+
+			mvc.perform(MockMvcRequestBuilders.get("/get_stats").param("pos", "first").param("stats", "sum,p50").param("approx", "true"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(startsWith("[{\"topic_name\":\"topic_1\",\"total_message_count\":10,\"percentiles\":{\"p50\":0}," +
+							"\"total_message_count_bounds\":[10,10],\"percentiles_bounds\":{\"p50\":[0,0]},\"sampled_partitions\":2,")));
+		} finally {
+			clearFolder(runDir);
+			runDir.delete();
+		}
+	}
+
+	/**
+	 * Test for the rejection of the requests exceeding the concurrency limit of the endpoint
+	 */
+	@Test
+	public void admissionControlTest() throws Exception {
+		MockEnvironment environment = new MockEnvironment()
+				.withProperty("admission.get_offsets.permits", "1")
+				.withProperty("admission.get_offsets.queue", "0")
+				.withProperty("admission.retry_after_s", "2");
+		AdmissionFilter admissionFilter = new AdmissionFilter(topicsStorage, environment);
+		MockMvc limitedMvc = MockMvcBuilders.standaloneSetup(new TestTaskController(topicsStorage, newRunsPublisher, slowRequestsLog))
+				.addFilters(admissionFilter).build();
+
+		AdmissionLimiter limiter = admissionFilter.getLimiter("get_offsets");
+		assertEquals(AdmissionLimiter.Decision.ADMITTED, limiter.acquire(1));
+		try {
+			limitedMvc.perform(MockMvcRequestBuilders.get("/get_offsets"))
+					.andExpect(status().isTooManyRequests())
+					.andExpect(header().string("Retry-After", "2"));
+
+			limitedMvc.perform(MockMvcRequestBuilders.get("/get_topics").param("empty", "n"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(equalTo("[\"topic_1\"]")));
+		} finally {
+			limiter.release(1);
+		}
+
+		limitedMvc.perform(MockMvcRequestBuilders.get("/get_offsets").param("pos", "last"))
+				.andExpect(status().isOk());
+		assertEquals(1, limiter.getAvailablePermits());
+
+		//the batch costs as much as its sub-requests together
+		topicsStorage.getSnapshot(TestTaskController.baseDir);
+		AdmissionFilter batchFilter = new AdmissionFilter(topicsStorage, new MockEnvironment()
+				.withProperty("admission.batch.permits", "2")
+				.withProperty("admission.batch.queue", "0")
+				.withProperty("admission.offsets_per_permit", "1"));
+		MockMvc batchMvc = MockMvcBuilders.standaloneSetup(new TestTaskController(topicsStorage, newRunsPublisher, slowRequestsLog))
+				.addFilters(batchFilter).build();
+		AdmissionLimiter batchLimiter = batchFilter.getLimiter("batch");
+		assertEquals(AdmissionLimiter.Decision.ADMITTED, batchLimiter.acquire(1));
+		try {
+			batchMvc.perform(MockMvcRequestBuilders.post("/batch").contentType(MediaType.APPLICATION_JSON)
+					.content("[{\"endpoint\":\"get_topics\"},{\"endpoint\":\"/get_offsets\",\"params\":{\"pos\":\"last\"}}]"))
+					.andExpect(status().isTooManyRequests());
+
+			batchMvc.perform(MockMvcRequestBuilders.post("/batch").contentType(MediaType.APPLICATION_JSON)
+					.content("[{\"endpoint\":\"get_topics\",\"params\":{\"empty\":\"n\"}}]"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(containsString("[\"topic_1\"]")));
+		} finally {
+			batchLimiter.release(1);
+		}
+
+		//the large batch is rejected before its body is kept
+		AdmissionFilter smallBatchFilter = new AdmissionFilter(topicsStorage, new MockEnvironment()
+				.withProperty("admission.batch.max_body_bytes", "16"));
+		MockMvcBuilders.standaloneSetup(new TestTaskController(topicsStorage, newRunsPublisher, slowRequestsLog))
+				.addFilters(smallBatchFilter).build()
+				.perform(MockMvcRequestBuilders.post("/batch").contentType(MediaType.APPLICATION_JSON)
+						.content("[{\"endpoint\":\"get_topics\"}]"))
+				.andExpect(status().is(413));
+	}
+
+	/**
+	 * Test for the Server-Timing header and the /get_slow_requests request
+	 */
+	@Test
+	public void tracingTest() throws Exception {
+		SlowRequestsLog allRequestsLog = new SlowRequestsLog(0, 4);
+		MockMvc tracedMvc = MockMvcBuilders.standaloneSetup(new TestTaskController(topicsStorage, newRunsPublisher, allRequestsLog))
+				.addFilters(new TracingFilter(allRequestsLog)).build();
+
+		tracedMvc.perform(MockMvcRequestBuilders.get("/get_stats?pos=last&stats=sum"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Server-Timing", allOf(containsString("listing;dur="), containsString("filter;dur="),
+						containsString("stats;dur="), containsString("total;dur="))));
+
+		tracedMvc.perform(MockMvcRequestBuilders.get("/get_slow_requests"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(allOf(startsWith("[{\"request\":\"/get_stats?pos=last&stats=sum\",\"status\":200,"),
+						containsString("\"phases\":{\"listing\":"))));
+	}
+
+	/**
+	 * Test for the /get_memory request and the partition layouts shared by the runs
+	 */
+	@Test
+	public void getMemoryTest() throws Exception {
+		TopicsSnapshot snapshot = topicsStorage.getSnapshot(TestTaskController.baseDir);
+		List<Topic> topics = new ArrayList<>(snapshot.getTopics());
+		List<Run> runs = new ArrayList<>(topics.get(0).getRuns());
+		List<Run> otherRuns = new ArrayList<>(topics.get(1).getRuns());
+		assertSame(runs.get(0).getOffsetTable().getLayout(), runs.get(1).getOffsetTable().getLayout());
+		assertSame(runs.get(1).getTimeStamp(), otherRuns.get(1).getTimeStamp());
+		assertSame(runs.get(1).getStringTimeStamp(), otherRuns.get(1).getStringTimeStamp());
+		assertSame(snapshot.getFilteredTopics("last"), snapshot.getFilteredTopics("last"));
+
+		mvc.perform(MockMvcRequestBuilders.get("/get_memory"))
+				.andExpect(status().isOk())
+				.andExpect(content().string(allOf(startsWith("{\"topics\":[{\"topic_name\":\"topic_1\",\"runs\":2,"),
+						containsString("\"partition_layouts\":2,"), containsString("\"time_stamps\":2,"),
+						containsString("\"total_heap_bytes\":"))));
+	}
+
+	/**
+	 * Test for the negotiated compression of the responses and the repeated requests served from the stored encodings
+	 */
+	@Test
+	public void compressionTest() throws Exception {
+		String offsets = "[{\"topic_name\":\"topic_1\",\"topic_runs\":[{\"offsets\":[{\"partition_no\":1,\"message_count\":0},{\"partition_no\":2,\"message_count\":10}],\"time_stamp\":\"1974-10-03-05-40-00\"}]}," +
+				"{\"topic_name\":\"topic_2\",\"topic_runs\":[{\"offsets\":[],\"time_stamp\":\"1974-10-03-05-40-00\"}]}]";
+		CompressionFilter compressionFilter = new CompressionFilter(topicsStorage, new MockEnvironment().withProperty("compression.min_bytes", "64"));
+		MockMvc compressedMvc = MockMvcBuilders.standaloneSetup(new TestTaskController(topicsStorage, newRunsPublisher, slowRequestsLog))
+				.addFilters(compressionFilter).build();
+		topicsStorage.getSnapshot(TestTaskController.baseDir);
+
+		byte[] gzipped = compressedMvc.perform(MockMvcRequestBuilders.get("/get_offsets?pos=last").header("Accept-Encoding", "gzip, deflate"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Content-Encoding", "gzip"))
+				.andExpect(header().string("Vary", "Accept-Encoding"))
+				.andReturn().getResponse().getContentAsByteArray();
+		assertEquals(offsets, decode(new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+
+		byte[] stored = compressedMvc.perform(MockMvcRequestBuilders.get("/get_offsets?pos=last").header("Accept-Encoding", "gzip, deflate"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Content-Encoding", "gzip"))
+				.andReturn().getResponse().getContentAsByteArray();
+		assertArrayEquals(gzipped, stored);
+		assertEquals(1, compressionFilter.getCache().getHits());
+
+		byte[] deflated = compressedMvc.perform(MockMvcRequestBuilders.get("/get_offsets?pos=last").header("Accept-Encoding", "gzip;q=0.5, deflate"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("Content-Encoding", "deflate"))
+				.andReturn().getResponse().getContentAsByteArray();
+		assertEquals(offsets, decode(new InflaterInputStream(new ByteArrayInputStream(deflated))));
+
+		compressedMvc.perform(MockMvcRequestBuilders.get("/get_offsets?pos=last").header("Accept-Encoding", "br, gzip;q=0"))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist("Content-Encoding"))
+				.andExpect(content().string(equalTo(offsets)));
+
+		compressedMvc.perform(MockMvcRequestBuilders.get("/get_topics?empty=n").header("Accept-Encoding", "gzip"))
+				.andExpect(status().isOk())
+				.andExpect(header().doesNotExist("Content-Encoding"))
+				.andExpect(content().string(equalTo("[\"topic_1\"]")));
+		assertEquals(4, compressionFilter.getCache().getResponsesCount());
+
+		//the stored responses are not sent if the topics haven't been refreshed for too long
+		CompressionFilter staleFilter = new CompressionFilter(topicsStorage, new MockEnvironment().withProperty("compression.max_stale_ms", "-1"));
+		MockMvc staleMvc = MockMvcBuilders.standaloneSetup(new TestTaskController(topicsStorage, newRunsPublisher, slowRequestsLog))
+				.addFilters(staleFilter).build();
+		for (int i = 0; i < 2; i++) {
+			staleMvc.perform(MockMvcRequestBuilders.get("/get_offsets?pos=last"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(equalTo(offsets)));
+		}
+		assertEquals(0, staleFilter.getCache().getHits());
+		assertEquals(1, staleFilter.getCache().getResponsesCount());
+	}
+
+	/**
+	 * Test for the /get_offsets and /get_stats requests with the offsets stored out of the heap
+	 */
+	@Test
+	public void offHeapStorageTest() throws Exception {
+		TopicsStorage offHeapStorage = new TopicsStorage("off_heap", 5000);
+		MockMvc offHeapMvc = MockMvcBuilders.standaloneSetup(new TestTaskController(offHeapStorage, newRunsPublisher, slowRequestsLog)).build();
+
+		try {
+			offHeapMvc.perform(MockMvcRequestBuilders.get("/get_offsets").param("pos", "last"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"topic_runs\":[{\"offsets\":[{\"partition_no\":1,\"message_count\":0},{\"partition_no\":2,\"message_count\":10}],\"time_stamp\":\"1974-10-03-05-40-00\"}]}," +
+							"{\"topic_name\":\"topic_2\",\"topic_runs\":[{\"offsets\":[],\"time_stamp\":\"1974-10-03-05-40-00\"}]}]")));
+
+			offHeapMvc.perform(MockMvcRequestBuilders.get("/get_stats").param("pos", "last").param("stats","sum,min,max,avg"))
+					.andExpect(status().isOk())
+					.andExpect(content().string(equalTo("[{\"topic_name\":\"topic_1\",\"total_message_count\":10,\"min_message_count\":0,\"max_message_count\":10,\"average_message_count\":5.0,\"time_stamp\":\"1974-10-03-05-40-00\"}," +
+							"{\"topic_name\":\"topic_2\",\"total_message_count\":0,\"time_stamp\":\"1974-10-03-05-40-00\"}]")));
+		} finally {
+			offHeapStorage.shutdown();
+		}
+	}
+
+	/**
+	 * Test for the direct buffers of the growing offsets file, which are shared by its tables until they are full
+	 */
+	@Test
+	public void growingOffHeapTableTest() throws Exception {
+		OffsetTableBuilder builder = new OffsetTableBuilder();
+		builder.add(1, 5);
+		builder.add(2, 6);
+		OffsetTable firstTable = builder.build(true, null);
+		builder.add(3, 7);
+		OffsetTable secondTable = builder.build(true, null);
+		builder.add(4, 8);
+		OffsetTable thirdTable = builder.build(true, null);
+
+		//the tables share the growing buffer, so each of them counts only its own offsets
+		assertEquals(2 * Long.BYTES, firstTable.getDirectSize());
+		assertEquals(3 * Long.BYTES, secondTable.getDirectSize());
+		assertEquals(4 * Long.BYTES, thirdTable.getDirectSize());
+		assertEquals(3 * Integer.BYTES, secondTable.getLayout().getDirectSize());
+		assertEquals(2, firstTable.size());
+		assertEquals(6, firstTable.getMsgCount(1));
+		assertEquals(3, secondTable.size());
+		assertEquals(4, thirdTable.size());
+		assertEquals(4, thirdTable.getPartitionNo(3));
+		assertEquals(8, thirdTable.getMsgCount(3));
+	}
+
+	/**
+	 * Test for the partitions search in the offset tables, with the repeated partitions summed
+	 */
+	@Test
+	public void partitionCountsTest() throws Exception {
+		for (boolean offHeap : new boolean[]{false, true}) {
+			OffsetTableBuilder builder = new OffsetTableBuilder();
+			builder.add(3, 5);
+			builder.add(1, 6);
+			builder.add(3, 7);
+			OffsetTable table = builder.build(offHeap, null);
+			PartitionLayout layout = table.getLayout();
+
+			assertEquals(-1, layout.findPartition(2));
+			assertEquals(0, layout.findPartition(1));
+			assertEquals(6, PartitionCounts.sum(table, layout.findPartition(1)));
+			assertEquals(12, PartitionCounts.sum(table, layout.findPartition(3)));
+			assertEquals(3, PartitionCounts.next(layout, layout.findPartition(3)));
+			assertEquals(offHeap ? 6 * Integer.BYTES : 0, layout.getDirectSize());
+		}
+	}
+
+
+	/**
+	 * Method for reading the decoded response body
+	 */
+	private String decode(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+			out.write(buffer, 0, read);
+		}
+		return out.toString("UTF-8");
+	}
 
 	/**
 	 * Recursive method for directory cleaning